@@ -7,20 +7,21 @@ import client.enums.UserCommandEnum;
 import client.services.CLIHelper;
 import client.thread.MulticastDaemon;
 import client.thread.ClientShutdownHook;
-import com.google.gson.GsonBuilder;
 import common.dto.*;
 import common.entity.SharedGame;
 import common.enums.AnsiColor;
 import common.enums.TCPCommandEnum;
 import common.interfaces.NotifyEventInterface;
 import common.interfaces.ServerRmiInterface;
+import common.interfaces.TcpCodecInterface;
+import common.utils.BinaryTcpCodec;
+import common.utils.JsonTcpCodec;
+import common.utils.TcpFrame;
 import common.utils.WordleLogger;
 import server.exceptions.WordleException;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.net.*;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
@@ -30,7 +31,6 @@ import java.rmi.registry.Registry;
 import java.rmi.server.RemoteObject;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static common.enums.ResponseCodeEnum.*;
@@ -42,6 +42,10 @@ public class ClientMain extends RemoteObject implements NotifyEventInterface {
 	private static List<UserScore> rank;
 	private static final List<SharedGame> sharedGames = new ArrayList<>();
 	private static Socket socket;
+	private static int lastRequestId = 0; // Identificativo dell'ultima richiesta inviata al server
+	private static TcpRequest lastRequest; // Ultima richiesta inviata, viene reinviata se il server risponde SERVER_BUSY
+	private static final int MAX_BUSY_RETRIES = 5;
+	private static TcpCodecInterface codec;
 	private static final WordleLogger logger = new WordleLogger(ClientMain.class.getName());
 	public String username = null;
 	private ClientModeEnum mode = ClientModeEnum.GUEST_MODE;
@@ -98,6 +102,13 @@ public class ClientMain extends RemoteObject implements NotifyEventInterface {
 		try {
 			socket = new Socket(ClientConfig.SERVER_IP, ClientConfig.TCP_PORT);
 			socket.setSoTimeout(ClientConfig.SOCKET_MS_TIMEOUT);
+			// Se richiesto comunico al server che utilizzero' il protocollo binario
+			if (ClientConfig.BINARY_CODEC) {
+				socket.getOutputStream().write(TcpFrame.BINARY_HANDSHAKE);
+				codec = new BinaryTcpCodec();
+			} else {
+				codec = new JsonTcpCodec();
+			}
 			logger.debug("Connessione TCP con il server riuscita! "+ClientConfig.SERVER_IP+":"+ClientConfig.TCP_PORT);
 		} catch (IOException e) {
 			logger.error("Errore durante connessione TCP al server: "+ e.getMessage());
@@ -469,45 +480,63 @@ public class ClientMain extends RemoteObject implements NotifyEventInterface {
 	}
 
 	/**
-	 * Funzione wrapper per inviare la richiesta al server in formato JSON
+	 * Funzione wrapper per inviare la richiesta al server (JSON o binaria), preceduta dalla sua lunghezza
 	 * @param request
 	 * @throws IOException
 	 */
 	public static void sendTcpMessage(TcpRequest request) throws IOException {
-		String json = new GsonBuilder().create().toJson(request);
-		Writer writer = new OutputStreamWriter(socket.getOutputStream());
-		writer.write(json);
-		writer.flush();
+		request.id = ++lastRequestId;
+		lastRequest = request;
+		TcpFrame.write(socket.getOutputStream(), codec.encodeRequest(request));
 	}
 
 	/**
-	 * Legge dal server la risposta JSON e la converte in un oggetto java
+	 * Legge dal server la risposta (JSON o binaria) e la converte in un oggetto java
 	 * @return
 	 * @throws IOException
 	 * @throws RuntimeException
 	 */
 	public static TcpResponse readTcpMessage() throws IOException, RuntimeException {
 
-		final int BUFFER_SIZE = 1024;
-		byte[] buffer = new byte[BUFFER_SIZE];
-		StringBuilder json = new StringBuilder();
-		int bytesRead;
-		BufferedInputStream inputStream = new BufferedInputStream(socket.getInputStream());
-
-		while ((bytesRead = inputStream.read(buffer)) > 0) {
-			json.append(new String(Arrays.copyOfRange(buffer, 0, bytesRead)));
-			if (bytesRead < BUFFER_SIZE) {
+		TcpResponse response = readTcpFrame();
+		// Server saturo, attendo il tempo suggerito e reinvio la stessa richiesta
+		for (int retry = 1; response.code == SERVER_BUSY && retry <= MAX_BUSY_RETRIES; retry++) {
+			int retryAfterMs = response.retryAfterMs != null ? response.retryAfterMs : 500;
+			System.out.println("Server occupato, nuovo tentativo tra " + retryAfterMs + " ms (" + retry + "/" + MAX_BUSY_RETRIES + ")");
+			try {
+				Thread.sleep(retryAfterMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 				break;
 			}
+			sendTcpMessage(lastRequest);
+			response = readTcpFrame();
 		}
 
-		if (json.length() == 0) {
-			throw new IOException("Letti 0 bytes, il server potrebbe essere offline(?)");
+		if(response.code == INTERNAL_SERVER_ERROR || response.code == SERVER_BUSY) {
+			throw new RuntimeException(response.code.name());
+		}
+		return response;
+	}
+
+	/**
+	 * Legge un singolo frame dal server e lo decodifica con il codec della connessione
+	 * @return
+	 * @throws IOException
+	 */
+	private static TcpResponse readTcpFrame() throws IOException {
+
+		byte[] payload;
+		try {
+			payload = TcpFrame.read(socket.getInputStream());
+		} catch (EOFException e) {
+			throw new IOException("Connessione chiusa, il server potrebbe essere offline(?)");
 		}
 
-		TcpResponse response = new GsonBuilder().create().fromJson(json.toString(), TcpResponse.class);
-		if(response.code == INTERNAL_SERVER_ERROR) {
-			throw new RuntimeException(INTERNAL_SERVER_ERROR.name());
+		TcpResponse response = codec.decodeResponse(payload);
+		// Il client invia una richiesta alla volta, la risposta deve riferirsi all'ultima richiesta inviata
+		if (response.id != null && response.id != lastRequestId) {
+			logger.warn("Ricevuta risposta " + response.id + " inattesa, attesa risposta " + lastRequestId);
 		}
 		return response;
 	}
@@ -15,6 +15,7 @@ public class ClientConfig {
 	public static String MULTICAST_IP;
 	public static int MULTICAST_PORT;
 	public static int SOCKET_MS_TIMEOUT;
+	public static boolean BINARY_CODEC; // Se true il client usa il protocollo binario invece che JSON
 	public static int WORDLE_MAX_ATTEMPTS = 12;
 
 	public static void loadConfig() {
@@ -27,6 +28,12 @@ public class ClientConfig {
 			MULTICAST_IP = ConfigReader.readProperty(properties, "app.multicast.ip");
 			MULTICAST_PORT = Integer.parseInt(ConfigReader.readProperty(properties, "app.multicast.port"));
 			SOCKET_MS_TIMEOUT = Integer.parseInt(ConfigReader.readProperty(properties, "app.tcp.timeout"));
+			String codec = ConfigReader.readProperty(properties, "app.tcp.codec");
+			if (!codec.equals("json") && !codec.equals("binary")) {
+				logger.error("Valore app.tcp.codec invalido! Valori ammessi: json, binary");
+				System.exit(-1);
+			}
+			BINARY_CODEC = codec.equals("binary");
 		} catch (NoSuchFieldException e) {
 			logger.error("Parametro di configurazione non trovato! " + e.getMessage());
 			System.exit(-1);
@@ -0,0 +1,43 @@
+package common.dto;
+
+import common.utils.BinaryTcpCodec;
+import common.utils.JsonTcpCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Riga dei suggerimenti di un tentativo insieme alle sue codifiche JSON e binaria. Una riga calcolata non cambia
+ * piu': i codec copiano le codifiche nel buffer di uscita invece di scrivere le celle una alla volta
+ */
+public class HintRow {
+
+	public final LetterDTO[] letters; // Non deve essere modificato
+	private final byte[] json;
+	private final byte[] binary;
+
+	public HintRow(LetterDTO[] letters) {
+		this.letters = letters;
+		this.json = JsonTcpCodec.encodeHintRow(letters);
+		this.binary = BinaryTcpCodec.encodeHintRow(letters);
+	}
+
+	/**
+	 * Scrive la riga in JSON compatto, come array di celle
+	 * @param out
+	 */
+	public void putJson(ByteBuffer out) {
+		out.put(this.json);
+	}
+
+	/**
+	 * Scrive la riga nel formato di BinaryTcpCodec: numero di celle seguito da un byte per cella
+	 * @param out
+	 */
+	public void putBinary(ByteBuffer out) {
+		out.put(this.binary);
+	}
+
+	public int getJsonLength() {
+		return this.json.length;
+	}
+}
@@ -1,9 +1,42 @@
 package common.dto;
 
+/**
+ * Cella dei suggerimenti: lettera del tentativo e suo stato ('+' posizione corretta, '?' presente, 'X' assente).
+ * Le celle sono immutabili: quelle delle lettere a-z sono condivise e si ottengono con of()
+ */
 public class LetterDTO {
 
-	public char letter;
-	public char guessStatus;
+	private static final String STATUSES = "+?X";
+	private static final LetterDTO[] CELLS = new LetterDTO[26 * STATUSES.length()];
+	static {
+		for (int letter = 0; letter < 26; letter++) {
+			for (int status = 0; status < STATUSES.length(); status++) {
+				CELLS[letter * STATUSES.length() + status] = new LetterDTO((char) ('a' + letter), STATUSES.charAt(status));
+			}
+		}
+	}
+
+	public final char letter;
+	public final char guessStatus;
+
+	private LetterDTO(char letter, char guessStatus) {
+		this.letter = letter;
+		this.guessStatus = guessStatus;
+	}
+
+	/**
+	 * Ritorna la cella con lettera e stato specificati, condivisa se la lettera e' a-z e lo stato e' valido
+	 * @param letter
+	 * @param guessStatus
+	 * @return
+	 */
+	public static LetterDTO of(char letter, char guessStatus) {
+		int status = STATUSES.indexOf(guessStatus);
+		if (letter < 'a' || letter > 'z' || status < 0) {
+			return new LetterDTO(letter, guessStatus);
+		}
+		return CELLS[(letter - 'a') * STATUSES.length() + status];
+	}
 
 	@Override
 	public String toString() {
@@ -9,6 +9,7 @@ public class TcpRequest {
 	public final TCPCommandEnum command;
 	public final String username;
 	public final String data;
+	public Integer id; // Identificativo opzionale della richiesta, viene ripetuto nella risposta
 
 	public TcpRequest(TCPCommandEnum command, String username) {
 		this.command = command;
@@ -25,7 +26,8 @@ public class TcpRequest {
 	@Override
 	public String toString() {
 		return "TcpRequestDTO{" +
-				"command='" + command + '\'' +
+				"id=" + id +
+				", command='" + command + '\'' +
 				", data=" + data +
 				'}';
 	}
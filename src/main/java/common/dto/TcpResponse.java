@@ -3,11 +3,14 @@ package common.dto;
 import common.enums.ResponseCodeEnum;
 
 public class TcpResponse {
+	public Integer id; // Identificativo della richiesta a cui si riferisce la risposta
 	public ResponseCodeEnum code; // Codice di risposta
 	public LetterDTO[][] userGuess;
+	public transient HintRow[] hintRows; // Lato server: suggerimenti gia' codificati, se presenti sostituiscono userGuess
 	public int remainingAttempts;
 	public UserStat stat;
 	public String wordTranslation;
+	public Integer retryAfterMs; // Con SERVER_BUSY indica dopo quanti millisecondi il client puo' riprovare
 
 	public TcpResponse(){
 		this.code = ResponseCodeEnum.OK;
@@ -1,42 +1,294 @@
 package common.entity;
 
 import client.entity.ClientConfig;
-import common.dto.LetterDTO;
+import com.google.gson.JsonSyntaxException;
+import common.dto.HintRow;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import common.utils.PackedWord;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * Questa classe rappresenta una partita giocata da un utente
+ * Questa classe rappresenta una partita giocata da un utente. Parola e tentativi sono salvati codificati con
+ * PackedWord (un long per parola), sia in memoria che su file: gli utenti mantengono tutte le partite giocate
  */
+@JsonAdapter(WordleGame.GameJsonAdapter.class)
 public class WordleGame {
 
-	public final String word;
+	private static final long[] NO_GUESSES = new long[0];
+	private static final HintRow[] NO_HINTS = new HintRow[0];
+	private final long word;
 	public final int gameNumber;
 	public boolean won;
 	public boolean finished;
-	private final List<String> userGuess;
+	private long[] userGuess; // Un elemento per ogni tentativo
+	private volatile HintRow[] hintRows = NO_HINTS; // Suggerimenti gia' calcolati dei primi tentativi, non salvati
 
-	public WordleGame(String word, int gameNumber) {
+	/**
+	 * @param word
+	 * @param gameNumber
+	 * @throws IllegalArgumentException se la parola non puo' essere codificata (vedi PackedWord)
+	 */
+	public WordleGame(String word, int gameNumber) throws IllegalArgumentException {
+		this(PackedWord.pack(word), gameNumber, NO_GUESSES);
+	}
+
+	private WordleGame(long word, int gameNumber, long[] userGuess) {
 		this.won = false;
 		this.finished = false;
 		this.word = word;
 		this.gameNumber = gameNumber;
-		this.userGuess = new ArrayList<>();
+		this.userGuess = userGuess;
+	}
+
+	/**
+	 * Crea una copia della partita
+	 * @param game
+	 */
+	public WordleGame(WordleGame game) {
+		this(game.word, game.gameNumber, game.userGuess);
+		this.won = game.won;
+		this.finished = game.finished;
+	}
+
+	public String getWord() {
+		return PackedWord.unpack(this.word);
+	}
+
+	/**
+	 * Ritorna la parola della partita codificata con PackedWord
+	 * @return
+	 */
+	public long getPackedWord() {
+		return this.word;
+	}
+
+	/**
+	 * Ritorna true se la parola della partita e' quella specificata, senza decodificarla
+	 * @param word
+	 * @return
+	 */
+	public boolean hasWord(String word) {
+		return PackedWord.equals(this.word, word);
 	}
 
 	public int getAttempts() {
-		return this.userGuess.size();
+		return this.userGuess.length;
 	}
 	public int getRemainingAttempts() {
 		return ClientConfig.WORDLE_MAX_ATTEMPTS - this.getAttempts();
 	}
 
-	public void addGuess(String guess) {
-		this.userGuess.add(guess);
+	/**
+	 * Aggiunge un tentativo. L'array viene sostituito e mai modificato: le copie della partita lo condividono
+	 * @param guess
+	 * @throws IllegalArgumentException se la parola non puo' essere codificata
+	 */
+	public void addGuess(String guess) throws IllegalArgumentException {
+		long packedGuess = PackedWord.pack(guess);
+		long[] guesses = Arrays.copyOf(this.userGuess, this.userGuess.length + 1);
+		guesses[guesses.length - 1] = packedGuess;
+		this.userGuess = guesses;
+	}
+
+	/**
+	 * Ritorna il tentativo specificato codificato con PackedWord
+	 * @param attempt indice del tentativo, da 0 a getAttempts() - 1
+	 * @return
+	 */
+	public long getPackedGuess(int attempt) {
+		return this.userGuess[attempt];
+	}
+
+	/**
+	 * Ritorna i suggerimenti gia' calcolati per i primi tentativi (al massimo getAttempts()). L'array e' condiviso e non
+	 * deve essere modificato
+	 * @return
+	 */
+	public HintRow[] getHintRows() {
+		return this.hintRows;
+	}
+
+	/**
+	 * Sostituisce i suggerimenti calcolati, da chiamare con un array esteso con le righe dei nuovi tentativi
+	 * @param hintRows
+	 */
+	public void setHintRows(HintRow[] hintRows) {
+		this.hintRows = hintRows;
+	}
+
+	/**
+	 * Libera i suggerimenti calcolati, da chiamare quando la partita non e' piu' l'ultima dell'utente
+	 */
+	public void clearHintRows() {
+		this.hintRows = NO_HINTS;
 	}
 
+	/**
+	 * Ritorna i tentativi decodificati
+	 * @return
+	 */
 	public List<String> getUserGuess() {
-		return userGuess;
+		List<String> guesses = new ArrayList<>(this.userGuess.length);
+		for (long guess: this.userGuess) {
+			guesses.add(PackedWord.unpack(guess));
+		}
+		return guesses;
+	}
+
+	/**
+	 * Ritorna una stima dei byte occupati in memoria dalla partita (oggetto e array dei tentativi)
+	 * @return
+	 */
+	public int getMemorySize() {
+		return 40 + (this.userGuess.length > 0 ? 16 + 8 * this.userGuess.length : 0);
+	}
+
+	/**
+	 * Ritorna i byte della partita scritta con writeTo
+	 * @return
+	 */
+	public int getEncodedSize() {
+		return 14 + 8 * this.userGuess.length;
+	}
+
+	/**
+	 * Scrive la partita in formato binario (archivio delle partite)
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(this.word);
+		out.writeInt(this.gameNumber);
+		out.writeByte((this.won ? 1 : 0) | (this.finished ? 2 : 0));
+		out.writeByte(this.userGuess.length);
+		for (long guess: this.userGuess) {
+			out.writeLong(guess);
+		}
+	}
+
+	/**
+	 * Legge una partita scritta con writeTo
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static WordleGame readFrom(DataInput in) throws IOException {
+		long word = in.readLong();
+		int gameNumber = in.readInt();
+		int flags = in.readByte();
+		long[] guesses = new long[in.readUnsignedByte()];
+		for (int i = 0; i < guesses.length; i++) {
+			guesses[i] = in.readLong();
+		}
+		WordleGame game = new WordleGame(word, gameNumber, guesses.length > 0 ? guesses : NO_GUESSES);
+		game.won = (flags & 1) != 0;
+		game.finished = (flags & 2) != 0;
+		return game;
+	}
+
+	/**
+	 * Serializzazione json della partita. Scrive parola e tentativi codificati (packedWord, guesses) e legge anche il
+	 * formato precedente con le parole in chiaro (word, userGuess)
+	 */
+	public static class GameJsonAdapter extends TypeAdapter<WordleGame> {
+
+		@Override
+		public void write(JsonWriter out, WordleGame game) throws IOException {
+			if (game == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name("packedWord").value(game.word);
+			out.name("gameNumber").value(game.gameNumber);
+			out.name("won").value(game.won);
+			out.name("finished").value(game.finished);
+			out.name("guesses").beginArray();
+			for (long guess: game.userGuess) {
+				out.value(guess);
+			}
+			out.endArray();
+			out.endObject();
+		}
+
+		@Override
+		public WordleGame read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			long word = 0;
+			int gameNumber = 0;
+			boolean won = false, finished = false;
+			long[] guesses = NO_GUESSES;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "packedWord":
+						word = in.nextLong();
+						break;
+					case "word":
+						word = packSaved(in.nextString());
+						break;
+					case "gameNumber":
+						gameNumber = in.nextInt();
+						break;
+					case "won":
+						won = in.nextBoolean();
+						break;
+					case "finished":
+						finished = in.nextBoolean();
+						break;
+					case "guesses":
+					case "userGuess":
+						guesses = readGuesses(in);
+						break;
+					default:
+						in.skipValue();
+				}
+			}
+			in.endObject();
+
+			WordleGame game = new WordleGame(word, gameNumber, guesses);
+			game.won = won;
+			game.finished = finished;
+			return game;
+		}
+
+		/**
+		 * Legge i tentativi, codificati o in chiaro
+		 */
+		private static long[] readGuesses(JsonReader in) throws IOException {
+			long[] guesses = new long[ClientConfig.WORDLE_MAX_ATTEMPTS];
+			int count = 0;
+			in.beginArray();
+			while (in.hasNext()) {
+				if (count == guesses.length) {
+					guesses = Arrays.copyOf(guesses, count * 2);
+				}
+				guesses[count++] = in.peek() == JsonToken.STRING ? packSaved(in.nextString()) : in.nextLong();
+			}
+			in.endArray();
+			return count > 0 ? Arrays.copyOf(guesses, count) : NO_GUESSES;
+		}
+
+		private static long packSaved(String word) {
+			try {
+				return PackedWord.pack(word);
+			} catch (IllegalArgumentException e) {
+				throw new JsonSyntaxException(e.getMessage());
+			}
+		}
 	}
 }
@@ -17,5 +17,6 @@ public enum ResponseCodeEnum {
 	GAME_ALREADY_PLAYED,
 	NEED_TO_START_GAME,
 	NO_GAME_TO_SHARE,
-	ALREADY_LOGGED_IN;
+	ALREADY_LOGGED_IN,
+	SERVER_BUSY;
 }
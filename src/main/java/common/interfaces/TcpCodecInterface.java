@@ -0,0 +1,41 @@
+package common.interfaces;
+
+import common.dto.TcpRequest;
+import common.dto.TcpResponse;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Codifica e decodifica i messaggi scambiati tra client e server sulla connessione TCP. Il payload prodotto viene
+ * poi inserito in un frame (vedi TcpFrame). Il lato server lavora direttamente sui ByteBuffer della connessione,
+ * il lato client su array di byte letti/scritti sul socket bloccante.
+ */
+public interface TcpCodecInterface {
+
+	byte[] encodeRequest(TcpRequest request);
+
+	/**
+	 * Decodifica una richiesta del client leggendo il payload dalla posizione al limite del buffer
+	 * @param payload
+	 * @return
+	 * @throws ProtocolException se il payload non contiene una richiesta valida
+	 */
+	TcpRequest decodeRequest(ByteBuffer payload) throws ProtocolException;
+
+	/**
+	 * Scrive la risposta nel buffer a partire dalla posizione corrente
+	 * @param response
+	 * @param out
+	 * @throws java.nio.BufferOverflowException se il buffer non ha abbastanza spazio
+	 */
+	void encodeResponse(TcpResponse response, ByteBuffer out);
+
+	/**
+	 * Decodifica una risposta del server
+	 * @param payload
+	 * @return
+	 * @throws ProtocolException se il payload non contiene una risposta valida
+	 */
+	TcpResponse decodeResponse(byte[] payload) throws ProtocolException;
+}
@@ -0,0 +1,252 @@
+package common.utils;
+
+import common.dto.GuessDistributionItem;
+import common.dto.HintRow;
+import common.dto.LetterDTO;
+import common.dto.TcpRequest;
+import common.dto.TcpResponse;
+import common.dto.UserStat;
+import common.enums.ResponseCodeEnum;
+import common.enums.TCPCommandEnum;
+import common.interfaces.TcpCodecInterface;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec binario compatto, scelto dal client inviando TcpFrame.BINARY_HANDSHAKE all'apertura della connessione.
+ * Gli enum vengono trasmessi con il loro ordinale (nuovi valori vanno aggiunti in fondo), le stringhe in UTF-8
+ * precedute dalla lunghezza (2 byte) e ogni cella dei suggerimenti occupa un solo byte: indice della lettera nei
+ * 5 bit bassi e stato nei 2 bit successivi.
+ */
+public class BinaryTcpCodec implements TcpCodecInterface {
+
+	// Flag dei campi opzionali presenti nel messaggio
+	private static final int HAS_ID = 1;
+	private static final int HAS_USERNAME = 2;
+	private static final int HAS_DATA = 4;
+	private static final int HAS_USER_GUESS = 8;
+	private static final int HAS_STAT = 16;
+	private static final int HAS_TRANSLATION = 32;
+	private static final int HAS_RETRY_AFTER = 64;
+	private static final int NULL_ENUM = 0xFF;
+	private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+	@Override
+	public byte[] encodeRequest(TcpRequest request) {
+		byte[] username = request.username != null ? utf8(request.username) : null;
+		byte[] data = request.data != null ? utf8(request.data) : null;
+
+		int size = 2 + (request.id != null ? 4 : 0) +
+				(username != null ? 2 + username.length : 0) +
+				(data != null ? 2 + data.length : 0);
+		ByteBuffer out = ByteBuffer.allocate(size);
+
+		out.put((byte) (request.command != null ? request.command.ordinal() : NULL_ENUM));
+		int flags = (request.id != null ? HAS_ID : 0) |
+				(username != null ? HAS_USERNAME : 0) |
+				(data != null ? HAS_DATA : 0);
+		out.put((byte) flags);
+		if (request.id != null) out.putInt(request.id);
+		if (username != null) out.putShort((short) username.length).put(username);
+		if (data != null) out.putShort((short) data.length).put(data);
+		return out.array();
+	}
+
+	@Override
+	public TcpRequest decodeRequest(ByteBuffer in) throws ProtocolException {
+		try {
+			TCPCommandEnum command = readEnum(in, TCPCommandEnum.values());
+			int flags = in.get() & 0xFF;
+			Integer id = (flags & HAS_ID) != 0 ? in.getInt() : null;
+			String username = (flags & HAS_USERNAME) != 0 ? readString(in) : null;
+			String data = (flags & HAS_DATA) != 0 ? readString(in) : null;
+
+			if (in.hasRemaining()) {
+				throw new ProtocolException("Byte inattesi alla fine della richiesta");
+			}
+			TcpRequest request = new TcpRequest(command, username, data);
+			request.id = id;
+			return request;
+		} catch (BufferUnderflowException e) {
+			throw new ProtocolException("Richiesta binaria troncata");
+		}
+	}
+
+	@Override
+	public void encodeResponse(TcpResponse response, ByteBuffer out) {
+
+		out.put((byte) (response.code != null ? response.code.ordinal() : NULL_ENUM));
+		int flags = (response.id != null ? HAS_ID : 0) |
+				(response.hintRows != null || response.userGuess != null ? HAS_USER_GUESS : 0) |
+				(response.stat != null ? HAS_STAT : 0) |
+				(response.wordTranslation != null ? HAS_TRANSLATION : 0) |
+				(response.retryAfterMs != null ? HAS_RETRY_AFTER : 0);
+		out.put((byte) flags);
+		if (response.id != null) out.putInt(response.id);
+		out.put((byte) response.remainingAttempts);
+
+		if (response.hintRows != null) {
+			out.put((byte) response.hintRows.length);
+			for (HintRow row: response.hintRows) {
+				row.putBinary(out);
+			}
+		} else if (response.userGuess != null) {
+			out.put((byte) response.userGuess.length);
+			for (LetterDTO[] row: response.userGuess) {
+				putHintRow(out, row);
+			}
+		}
+
+		if (response.stat != null) {
+			UserStat stat = response.stat;
+			out.putInt(stat.playedGames);
+			out.put((byte) stat.wonGamesPercentage);
+			out.putFloat(stat.avgAttemptsWonGames);
+			out.putInt(stat.lastStreakWonGames);
+			out.putInt(stat.bestStreakWonGames);
+			int items = stat.guessDistribution != null ? stat.guessDistribution.length : 0;
+			out.put((byte) items);
+			for (int i = 0; i < items; i++) {
+				out.put((byte) stat.guessDistribution[i].attemptNumber);
+				out.put((byte) stat.guessDistribution[i].percentage);
+			}
+		}
+
+		if (response.wordTranslation != null) putString(out, response.wordTranslation);
+		if (response.retryAfterMs != null) out.putInt(response.retryAfterMs);
+	}
+
+	@Override
+	public TcpResponse decodeResponse(byte[] payload) throws ProtocolException {
+		ByteBuffer in = ByteBuffer.wrap(payload);
+		try {
+			TcpResponse response = new TcpResponse(readEnum(in, ResponseCodeEnum.values()));
+			int flags = in.get() & 0xFF;
+			if ((flags & HAS_ID) != 0) response.id = in.getInt();
+			response.remainingAttempts = in.get();
+
+			if ((flags & HAS_USER_GUESS) != 0) {
+				response.userGuess = new LetterDTO[in.get() & 0xFF][];
+				for (int i = 0; i < response.userGuess.length; i++) {
+					LetterDTO[] row = new LetterDTO[in.get() & 0xFF];
+					for (int j = 0; j < row.length; j++) {
+						row[j] = decodeLetter(in.get() & 0xFF);
+					}
+					response.userGuess[i] = row;
+				}
+			}
+
+			if ((flags & HAS_STAT) != 0) {
+				UserStat stat = new UserStat();
+				stat.playedGames = in.getInt();
+				stat.wonGamesPercentage = in.get() & 0xFF;
+				stat.avgAttemptsWonGames = in.getFloat();
+				stat.lastStreakWonGames = in.getInt();
+				stat.bestStreakWonGames = in.getInt();
+				int items = in.get() & 0xFF;
+				if (items > 0) {
+					stat.guessDistribution = new GuessDistributionItem[items];
+					for (int i = 0; i < items; i++) {
+						stat.guessDistribution[i] = new GuessDistributionItem();
+						stat.guessDistribution[i].attemptNumber = in.get() & 0xFF;
+						stat.guessDistribution[i].percentage = in.get() & 0xFF;
+					}
+				}
+				response.stat = stat;
+			}
+
+			if ((flags & HAS_TRANSLATION) != 0) response.wordTranslation = readString(in);
+			if ((flags & HAS_RETRY_AFTER) != 0) response.retryAfterMs = in.getInt();
+			return response;
+		} catch (BufferUnderflowException e) {
+			throw new ProtocolException("Risposta binaria troncata");
+		}
+	}
+
+	/**
+	 * Codifica una riga dei suggerimenti (vedi HintRow)
+	 * @param row
+	 * @return
+	 */
+	public static byte[] encodeHintRow(LetterDTO[] row) {
+		ByteBuffer out = ByteBuffer.allocate(1 + row.length);
+		putHintRow(out, row);
+		return out.array();
+	}
+
+	private static void putHintRow(ByteBuffer out, LetterDTO[] row) {
+		out.put((byte) row.length);
+		for (LetterDTO letter: row) {
+			out.put(encodeLetter(letter));
+		}
+	}
+
+	/**
+	 * Codifica una cella dei suggerimenti in un byte. Le parole del dizionario contengono solo lettere minuscole
+	 * @param letter
+	 * @return
+	 */
+	private static byte encodeLetter(LetterDTO letter) {
+		int status;
+		switch (letter.guessStatus) {
+			case '+': status = 1; break;
+			case '?': status = 2; break;
+			default: status = 3;
+		}
+		return (byte) ((status << 5) | ((letter.letter - 'a') & 0x1F));
+	}
+
+	private static LetterDTO decodeLetter(int cell) {
+		char letter = (char) ('a' + (cell & 0x1F));
+		switch (cell >> 5) {
+			case 1: return LetterDTO.of(letter, '+');
+			case 2: return LetterDTO.of(letter, '?');
+			default: return LetterDTO.of(letter, 'X');
+		}
+	}
+
+	private static <E extends Enum<E>> E readEnum(ByteBuffer in, E[] values) throws ProtocolException {
+		int ordinal = in.get() & 0xFF;
+		if (ordinal == NULL_ENUM) {
+			return null;
+		}
+		if (ordinal >= values.length) {
+			throw new ProtocolException("Valore enum non valido: " + ordinal);
+		}
+		return values[ordinal];
+	}
+
+	private static byte[] utf8(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_STRING_LENGTH) {
+			throw new IllegalArgumentException("Stringa troppo lunga per il protocollo binario");
+		}
+		return bytes;
+	}
+
+	private static void putString(ByteBuffer out, String value) {
+		byte[] bytes = utf8(value);
+		out.putShort((short) bytes.length);
+		out.put(bytes);
+	}
+
+	private static String readString(ByteBuffer in) throws ProtocolException {
+		int length = in.getShort() & 0xFFFF;
+		if (length > in.remaining()) {
+			throw new ProtocolException("Stringa binaria troncata");
+		}
+		String value;
+		if (in.hasArray()) {
+			value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+			in.position(in.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+}
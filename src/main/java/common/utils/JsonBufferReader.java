@@ -0,0 +1,329 @@
+package common.utils;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser JSON minimale che legge direttamente da un ByteBuffer (in modalita' lettura) senza convertirlo in String.
+ * I nomi dei campi e i valori degli enum vengono confrontati byte per byte con quelli attesi, vengono allocate
+ * solo le stringhe dei valori restituiti al chiamante.
+ */
+public class JsonBufferReader {
+
+	private final ByteBuffer in;
+	private boolean firstField;
+
+	public JsonBufferReader(ByteBuffer in) {
+		this.in = in;
+	}
+
+	/**
+	 * Converte una lista di nomi (campi o enum) nei rispettivi byte, da usare con nextName() e readEnum()
+	 * @param names
+	 * @return
+	 */
+	public static byte[][] names(String... names) {
+		byte[][] bytes = new byte[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			bytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+
+	public void beginObject() throws ProtocolException {
+		expect('{');
+		firstField = true;
+	}
+
+	/**
+	 * Ritorna true se l'oggetto corrente ha un altro campo, consumando la virgola di separazione
+	 * @return
+	 * @throws ProtocolException
+	 */
+	public boolean hasNextField() throws ProtocolException {
+		byte c = peek();
+		if (c == '}') {
+			in.get();
+			return false;
+		}
+		if (!firstField) {
+			expect(',');
+		}
+		firstField = false;
+		return true;
+	}
+
+	/**
+	 * Legge il nome del prossimo campo e i due punti che lo seguono
+	 * @param names nomi attesi
+	 * @return indice del nome letto in names, -1 se il campo non e' tra quelli attesi
+	 * @throws ProtocolException
+	 */
+	public int nextName(byte[][] names) throws ProtocolException {
+		int index = matchString(names);
+		expect(':');
+		return index;
+	}
+
+	/**
+	 * Legge un valore stringa di un enum
+	 * @param names nomi dei valori dell'enum, nello stesso ordine di values()
+	 * @return ordinale del valore letto, -1 se il valore e' null
+	 * @throws ProtocolException se il valore non e' tra quelli attesi
+	 */
+	public int readEnum(byte[][] names) throws ProtocolException {
+		if (readNull()) {
+			return -1;
+		}
+		int index = matchString(names);
+		if (index < 0) {
+			throw new ProtocolException("Valore enum non valido");
+		}
+		return index;
+	}
+
+	/**
+	 * Legge un valore stringa (eventualmente null)
+	 * @return
+	 * @throws ProtocolException
+	 */
+	public String readString() throws ProtocolException {
+		if (readNull()) {
+			return null;
+		}
+		expect('"');
+		int start = in.position();
+		// Caso comune: nessun carattere di escape, decodifico direttamente i byte
+		while (in.hasRemaining()) {
+			byte c = in.get();
+			if (c == '"') {
+				return decode(start, in.position() - 1 - start);
+			}
+			if (c == '\\') {
+				in.position(start);
+				return readEscapedString();
+			}
+		}
+		throw new ProtocolException("Stringa JSON non terminata");
+	}
+
+	/**
+	 * Legge un valore intero (eventualmente null)
+	 * @return
+	 * @throws ProtocolException
+	 */
+	public Integer readInteger() throws ProtocolException {
+		if (readNull()) {
+			return null;
+		}
+		skipWhitespace();
+		boolean negative = false;
+		if (in.hasRemaining() && in.get(in.position()) == '-') {
+			negative = true;
+			in.get();
+		}
+		long value = 0;
+		int digits = 0;
+		while (in.hasRemaining() && in.get(in.position()) >= '0' && in.get(in.position()) <= '9') {
+			value = value * 10 + (in.get() - '0');
+			if (value > (long) Integer.MAX_VALUE + 1) {
+				throw new ProtocolException("Intero fuori intervallo");
+			}
+			digits++;
+		}
+		if (digits == 0) {
+			throw new ProtocolException("Intero non valido");
+		}
+		value = negative ? -value : value;
+		if (value > Integer.MAX_VALUE) {
+			throw new ProtocolException("Intero fuori intervallo");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Salta il prossimo valore, di qualsiasi tipo (campi non riconosciuti)
+	 * @throws ProtocolException
+	 */
+	public void skipValue() throws ProtocolException {
+		byte c = peek();
+		if (c == '"') {
+			readString();
+		} else if (c == '{' || c == '[') {
+			// Conto le parentesi saltando il contenuto delle stringhe
+			int depth = 0;
+			skipWhitespace();
+			do {
+				c = next();
+				if (c == '"') {
+					in.position(in.position() - 1);
+					readString();
+				} else if (c == '{' || c == '[') {
+					depth++;
+				} else if (c == '}' || c == ']') {
+					depth--;
+				}
+			} while (depth > 0);
+		} else {
+			// Numeri, true, false, null
+			while (in.hasRemaining()) {
+				c = in.get(in.position());
+				if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+					break;
+				}
+				in.get();
+			}
+		}
+	}
+
+	/**
+	 * Controlla che dopo il documento ci siano solo spazi
+	 * @throws ProtocolException
+	 */
+	public void endDocument() throws ProtocolException {
+		skipWhitespace();
+		if (in.hasRemaining()) {
+			throw new ProtocolException("Caratteri inattesi dopo il documento JSON");
+		}
+	}
+
+	private boolean readNull() throws ProtocolException {
+		if (peek() != 'n') {
+			return false;
+		}
+		expect('n');
+		if (next() != 'u' || next() != 'l' || next() != 'l') {
+			throw new ProtocolException("Valore JSON non valido");
+		}
+		return true;
+	}
+
+	/**
+	 * Legge una stringa (senza escape) e la confronta con i nomi attesi
+	 * @param names
+	 * @return indice del nome corrispondente, -1 se nessuno corrisponde
+	 * @throws ProtocolException
+	 */
+	private int matchString(byte[][] names) throws ProtocolException {
+		expect('"');
+		int start = in.position();
+		while (next() != '"') {
+			if (in.get(in.position() - 1) == '\\') {
+				// I nomi attesi non contengono caratteri di escape, salto il carattere successivo
+				next();
+			}
+		}
+		int length = in.position() - 1 - start;
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].length == length && regionEquals(start, names[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean regionEquals(int start, byte[] name) {
+		for (int i = 0; i < name.length; i++) {
+			if (in.get(start + i) != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String decode(int start, int length) {
+		if (in.hasArray()) {
+			return new String(in.array(), in.arrayOffset() + start, length, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = in.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Legge una stringa che contiene caratteri di escape, il buffer e' posizionato dopo le virgolette di apertura
+	 * @return
+	 * @throws ProtocolException
+	 */
+	private String readEscapedString() throws ProtocolException {
+		StringBuilder value = new StringBuilder();
+		int chunkStart = in.position();
+		while (true) {
+			byte c = next();
+			if (c == '"') {
+				value.append(decode(chunkStart, in.position() - 1 - chunkStart));
+				return value.toString();
+			}
+			if (c != '\\') {
+				continue;
+			}
+			value.append(decode(chunkStart, in.position() - 1 - chunkStart));
+			byte escaped = next();
+			switch (escaped) {
+				case '"': value.append('"'); break;
+				case '\\': value.append('\\'); break;
+				case '/': value.append('/'); break;
+				case 'b': value.append('\b'); break;
+				case 'f': value.append('\f'); break;
+				case 'n': value.append('\n'); break;
+				case 'r': value.append('\r'); break;
+				case 't': value.append('\t'); break;
+				case 'u': {
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(next(), 16);
+						if (digit < 0) {
+							throw new ProtocolException("Escape unicode non valido");
+						}
+						code = (code << 4) | digit;
+					}
+					value.append((char) code);
+					break;
+				}
+				default:
+					throw new ProtocolException("Escape non valido");
+			}
+			chunkStart = in.position();
+		}
+	}
+
+	private void expect(char expected) throws ProtocolException {
+		skipWhitespace();
+		if (next() != expected) {
+			throw new ProtocolException("Atteso carattere '" + expected + "'");
+		}
+	}
+
+	private byte peek() throws ProtocolException {
+		skipWhitespace();
+		if (!in.hasRemaining()) {
+			throw new ProtocolException("Fine inattesa del documento JSON");
+		}
+		return in.get(in.position());
+	}
+
+	/**
+	 * Legge il prossimo byte cosi' com'e', senza saltare gli spazi (usato anche all'interno delle stringhe)
+	 * @return
+	 * @throws ProtocolException
+	 */
+	private byte next() throws ProtocolException {
+		if (!in.hasRemaining()) {
+			throw new ProtocolException("Fine inattesa del documento JSON");
+		}
+		return in.get();
+	}
+
+	private void skipWhitespace() {
+		while (in.hasRemaining() && isWhitespace(in.get(in.position()))) {
+			in.get();
+		}
+	}
+
+	private static boolean isWhitespace(byte c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+}
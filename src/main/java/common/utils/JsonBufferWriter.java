@@ -0,0 +1,148 @@
+package common.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scrittura di valori JSON direttamente in un ByteBuffer (UTF-8), senza passare da String o StringBuilder.
+ * Se il buffer non ha abbastanza spazio viene lanciata BufferOverflowException e il chiamante deve ripristinare
+ * la posizione del buffer.
+ */
+public class JsonBufferWriter {
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	private static final int FLOAT_DECIMALS = 4;
+
+	/**
+	 * Scrive una stringa che contiene solo caratteri ASCII senza escape (nomi dei campi, nomi degli enum, punteggiatura)
+	 * @param out
+	 * @param ascii
+	 */
+	public static void putRaw(ByteBuffer out, String ascii) {
+		for (int i = 0; i < ascii.length(); i++) {
+			out.put((byte) ascii.charAt(i));
+		}
+	}
+
+	/**
+	 * Scrive una stringa JSON tra virgolette, con escape dei caratteri speciali e codifica UTF-8
+	 * @param out
+	 * @param value
+	 */
+	public static void putString(ByteBuffer out, String value) {
+		out.put((byte) '"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.put((byte) '\\');
+				out.put((byte) c);
+			} else if (c < 0x20) {
+				putUnicodeEscape(out, c);
+			} else if (c < 0x80) {
+				out.put((byte) c);
+			} else if (c < 0x800) {
+				out.put((byte) (0xC0 | (c >> 6)));
+				out.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				out.put((byte) (0xF0 | (codePoint >> 18)));
+				out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				out.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				// Surrogato spaiato, non rappresentabile in UTF-8
+				putUnicodeEscape(out, c);
+			} else {
+				out.put((byte) (0xE0 | (c >> 12)));
+				out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				out.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		out.put((byte) '"');
+	}
+
+	/**
+	 * Scrive un singolo carattere come stringa JSON (es. lettere e stato dei suggerimenti)
+	 * @param out
+	 * @param c
+	 */
+	public static void putChar(ByteBuffer out, char c) {
+		if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+			out.put((byte) '"');
+			out.put((byte) c);
+			out.put((byte) '"');
+		} else {
+			putString(out, String.valueOf(c));
+		}
+	}
+
+	/**
+	 * Scrive un intero in base 10
+	 * @param out
+	 * @param value
+	 */
+	public static void putInt(ByteBuffer out, int value) {
+		long v = value;
+		if (v < 0) {
+			out.put((byte) '-');
+			v = -v;
+		}
+		long divisor = 1;
+		while (divisor * 10 <= v) {
+			divisor *= 10;
+		}
+		while (divisor > 0) {
+			out.put((byte) ('0' + (v / divisor)));
+			v %= divisor;
+			divisor /= 10;
+		}
+	}
+
+	/**
+	 * Scrive un float con al massimo FLOAT_DECIMALS cifre decimali. I valori non finiti vengono scritti come 0
+	 * @param out
+	 * @param value
+	 */
+	public static void putFloat(ByteBuffer out, float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			putRaw(out, "0.0");
+			return;
+		}
+		long scale = 1;
+		for (int i = 0; i < FLOAT_DECIMALS; i++) {
+			scale *= 10;
+		}
+		long scaled = Math.round(Math.abs((double) value) * scale);
+		if (value < 0 && scaled != 0) {
+			out.put((byte) '-');
+		}
+		long integerPart = scaled / scale;
+		long fraction = scaled % scale;
+		// La parte intera di un float nel nostro dominio (medie, percentuali) sta in un int
+		putInt(out, (int) integerPart);
+		out.put((byte) '.');
+		// Scrivo almeno una cifra decimale, rimuovendo gli zeri finali
+		int decimals = FLOAT_DECIMALS;
+		while (decimals > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			decimals--;
+		}
+		long divisor = 1;
+		for (int i = 1; i < decimals; i++) {
+			divisor *= 10;
+		}
+		while (divisor > 0) {
+			out.put((byte) ('0' + (fraction / divisor)));
+			fraction %= divisor;
+			divisor /= 10;
+		}
+	}
+
+	private static void putUnicodeEscape(ByteBuffer out, char c) {
+		out.put((byte) '\\');
+		out.put((byte) 'u');
+		out.put(HEX[(c >> 12) & 0xF]);
+		out.put(HEX[(c >> 8) & 0xF]);
+		out.put(HEX[(c >> 4) & 0xF]);
+		out.put(HEX[c & 0xF]);
+	}
+}
@@ -0,0 +1,193 @@
+package common.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import common.dto.GuessDistributionItem;
+import common.dto.LetterDTO;
+import common.dto.TcpRequest;
+import common.dto.TcpResponse;
+import common.dto.UserStat;
+import common.enums.TCPCommandEnum;
+import common.interfaces.TcpCodecInterface;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static common.utils.JsonBufferWriter.*;
+
+/**
+ * Codec JSON, utilizzato di default dai client che non effettuano l'handshake per il protocollo binario.
+ * Lato server le risposte vengono scritte in JSON compatto direttamente nel buffer di uscita e le richieste
+ * vengono lette direttamente dal buffer della connessione, senza passare da Gson. Il lato client usa Gson.
+ */
+public class JsonTcpCodec implements TcpCodecInterface {
+
+	private final static Gson gson = new GsonBuilder().create();
+	private static final byte[][] REQUEST_FIELDS = JsonBufferReader.names("command", "username", "data", "id");
+	private static final byte[][] COMMANDS = enumNames(TCPCommandEnum.values());
+
+	@Override
+	public byte[] encodeRequest(TcpRequest request) {
+		return gson.toJson(request).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public TcpRequest decodeRequest(ByteBuffer payload) throws ProtocolException {
+
+		JsonBufferReader reader = new JsonBufferReader(payload);
+		TCPCommandEnum command = null;
+		String username = null;
+		String data = null;
+		Integer id = null;
+
+		reader.beginObject();
+		while (reader.hasNextField()) {
+			switch (reader.nextName(REQUEST_FIELDS)) {
+				case 0: {
+					int ordinal = reader.readEnum(COMMANDS);
+					command = ordinal < 0 ? null : TCPCommandEnum.values()[ordinal];
+					break;
+				}
+				case 1: username = reader.readString(); break;
+				case 2: data = reader.readString(); break;
+				case 3: id = reader.readInteger(); break;
+				default: reader.skipValue();
+			}
+		}
+		reader.endDocument();
+
+		TcpRequest request = new TcpRequest(command, username, data);
+		request.id = id;
+		return request;
+	}
+
+	@Override
+	public void encodeResponse(TcpResponse response, ByteBuffer out) {
+
+		// Come Gson ometto i campi null, remainingAttempts (int) viene sempre scritto
+		out.put((byte) '{');
+		if (response.code != null) {
+			putRaw(out, "\"code\":\"");
+			putRaw(out, response.code.name());
+			putRaw(out, "\",");
+		}
+
+		if (response.id != null) {
+			putRaw(out, "\"id\":");
+			putInt(out, response.id);
+			out.put((byte) ',');
+		}
+
+		putRaw(out, "\"remainingAttempts\":");
+		putInt(out, response.remainingAttempts);
+
+		if (response.hintRows != null) {
+			putRaw(out, ",\"userGuess\":[");
+			for (int i = 0; i < response.hintRows.length; i++) {
+				if (i > 0) out.put((byte) ',');
+				response.hintRows[i].putJson(out);
+			}
+			out.put((byte) ']');
+		} else if (response.userGuess != null) {
+			putRaw(out, ",\"userGuess\":[");
+			for (int i = 0; i < response.userGuess.length; i++) {
+				if (i > 0) out.put((byte) ',');
+				putHintRow(out, response.userGuess[i]);
+			}
+			out.put((byte) ']');
+		}
+
+		if (response.stat != null) {
+			putRaw(out, ",\"stat\":");
+			putStat(out, response.stat);
+		}
+
+		if (response.wordTranslation != null) {
+			putRaw(out, ",\"wordTranslation\":");
+			putString(out, response.wordTranslation);
+		}
+
+		if (response.retryAfterMs != null) {
+			putRaw(out, ",\"retryAfterMs\":");
+			putInt(out, response.retryAfterMs);
+		}
+
+		out.put((byte) '}');
+	}
+
+	@Override
+	public TcpResponse decodeResponse(byte[] payload) throws ProtocolException {
+		try {
+			TcpResponse response = gson.fromJson(new String(payload, StandardCharsets.UTF_8), TcpResponse.class);
+			if (response == null) {
+				throw new ProtocolException("Messaggio vuoto");
+			}
+			return response;
+		} catch (JsonSyntaxException e) {
+			throw new ProtocolException("Messaggio JSON malformato: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Codifica una riga dei suggerimenti in JSON compatto (vedi HintRow)
+	 * @param row
+	 * @return
+	 */
+	public static byte[] encodeHintRow(LetterDTO[] row) {
+		// Spazio per celle con lettere da codificare con escape
+		ByteBuffer out = ByteBuffer.allocate(2 + row.length * 64);
+		putHintRow(out, row);
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	private static void putHintRow(ByteBuffer out, LetterDTO[] row) {
+		out.put((byte) '[');
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) out.put((byte) ',');
+			putRaw(out, "{\"letter\":");
+			putChar(out, row[i].letter);
+			putRaw(out, ",\"guessStatus\":");
+			putChar(out, row[i].guessStatus);
+			out.put((byte) '}');
+		}
+		out.put((byte) ']');
+	}
+
+	private static void putStat(ByteBuffer out, UserStat stat) {
+		putRaw(out, "{\"playedGames\":");
+		putInt(out, stat.playedGames);
+		putRaw(out, ",\"wonGamesPercentage\":");
+		putInt(out, stat.wonGamesPercentage);
+		putRaw(out, ",\"avgAttemptsWonGames\":");
+		putFloat(out, stat.avgAttemptsWonGames);
+		putRaw(out, ",\"lastStreakWonGames\":");
+		putInt(out, stat.lastStreakWonGames);
+		putRaw(out, ",\"bestStreakWonGames\":");
+		putInt(out, stat.bestStreakWonGames);
+		if (stat.guessDistribution != null) {
+			putRaw(out, ",\"guessDistribution\":[");
+			for (int i = 0; i < stat.guessDistribution.length; i++) {
+				GuessDistributionItem item = stat.guessDistribution[i];
+				if (i > 0) out.put((byte) ',');
+				putRaw(out, "{\"attemptNumber\":");
+				putInt(out, item.attemptNumber);
+				putRaw(out, ",\"percentage\":");
+				putInt(out, item.percentage);
+				out.put((byte) '}');
+			}
+			out.put((byte) ']');
+		}
+		out.put((byte) '}');
+	}
+
+	private static byte[][] enumNames(Enum<?>[] values) {
+		String[] names = new String[values.length];
+		for (int i = 0; i < values.length; i++) {
+			names[i] = values[i].name();
+		}
+		return JsonBufferReader.names(names);
+	}
+}
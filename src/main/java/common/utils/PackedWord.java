@@ -0,0 +1,107 @@
+package common.utils;
+
+/**
+ * Codifica compatta delle parole in un long: ogni lettera a-z occupa 5 bit (a = 1, ..., z = 26), la prima lettera nei
+ * bit meno significativi. Il valore 0 indica la fine della parola, quindi un long contiene parole fino a MAX_LENGTH
+ * lettere. Una parola codificata occupa 8 byte invece di un oggetto String con il suo array di caratteri.
+ */
+public class PackedWord {
+
+	public static final int MAX_LENGTH = 12;
+	private static final int BITS_PER_LETTER = 5;
+	private static final long LETTER_MASK = (1L << BITS_PER_LETTER) - 1;
+
+	/**
+	 * Ritorna true se la parola puo' essere codificata: solo lettere minuscole a-z, massimo MAX_LENGTH lettere
+	 * @param word
+	 * @return
+	 */
+	public static boolean isPackable(String word) {
+		if (word == null || word.length() > MAX_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			char letter = word.charAt(i);
+			if (letter < 'a' || letter > 'z') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Codifica la parola
+	 * @param word
+	 * @return
+	 * @throws IllegalArgumentException se la parola non puo' essere codificata
+	 */
+	public static long pack(String word) throws IllegalArgumentException {
+		if (!isPackable(word)) {
+			throw new IllegalArgumentException("Parola non codificabile: " + word);
+		}
+		long packed = 0;
+		for (int i = word.length() - 1; i >= 0; i--) {
+			packed = (packed << BITS_PER_LETTER) | (word.charAt(i) - 'a' + 1);
+		}
+		return packed;
+	}
+
+	/**
+	 * Decodifica la parola
+	 * @param packed
+	 * @return
+	 */
+	public static String unpack(long packed) {
+		char[] letters = new char[length(packed)];
+		for (int i = 0; i < letters.length; i++) {
+			letters[i] = charAt(packed, i);
+		}
+		return new String(letters);
+	}
+
+	public static int length(long packed) {
+		int length = 0;
+		while (length < MAX_LENGTH && (packed & LETTER_MASK) != 0) {
+			packed >>>= BITS_PER_LETTER;
+			length++;
+		}
+		return length;
+	}
+
+	public static char charAt(long packed, int index) {
+		return (char) ('a' - 1 + ((packed >>> (index * BITS_PER_LETTER)) & LETTER_MASK));
+	}
+
+	/**
+	 * Ritorna l'insieme delle lettere della parola codificata come maschera di bit (bit 0 = a, ..., bit 25 = z)
+	 * @param packed
+	 * @return
+	 */
+	public static int letterMask(long packed) {
+		int mask = 0;
+		while ((packed & LETTER_MASK) != 0) {
+			mask |= 1 << ((packed & LETTER_MASK) - 1);
+			packed >>>= BITS_PER_LETTER;
+		}
+		return mask;
+	}
+
+	/**
+	 * Confronta la parola codificata con una stringa senza decodificarla
+	 * @param packed
+	 * @param word
+	 * @return
+	 */
+	public static boolean equals(long packed, String word) {
+		if (word == null || word.length() > MAX_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (charAt(packed, i) != word.charAt(i)) {
+				return false;
+			}
+		}
+		// La parola codificata non deve essere piu' lunga
+		return word.length() == MAX_LENGTH || ((packed >>> (word.length() * BITS_PER_LETTER)) & LETTER_MASK) == 0;
+	}
+}
@@ -0,0 +1,61 @@
+package common.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+
+/**
+ * Helper per il framing dei messaggi TCP. Ogni messaggio e' preceduto da un header di 4 byte (big endian) che
+ * contiene la lunghezza del payload, in questo modo chi legge sa esattamente quando un messaggio e' completo.
+ * Un client puo' scegliere il codec binario inviando BINARY_HANDSHAKE come primo byte della connessione: dato che
+ * il payload non supera MAX_PAYLOAD_SIZE il primo byte di un header e' sempre 0, quindi i client JSON non
+ * devono inviare nulla.
+ */
+public class TcpFrame {
+
+	public static final int HEADER_SIZE = 4;
+	public static final int MAX_PAYLOAD_SIZE = 1024 * 1024;
+	public static final byte BINARY_HANDSHAKE = (byte) 0xB1;
+
+	/**
+	 * Controlla che la lunghezza letta dall'header sia valida
+	 * @param length
+	 * @throws ProtocolException
+	 */
+	public static void checkLength(int length) throws ProtocolException {
+		if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+			throw new ProtocolException("Lunghezza frame non valida: " + length);
+		}
+	}
+
+	/**
+	 * Scrive un frame sullo stream (lato client, socket bloccante)
+	 * @param outputStream
+	 * @param payload
+	 * @throws IOException
+	 */
+	public static void write(OutputStream outputStream, byte[] payload) throws IOException {
+		DataOutputStream out = new DataOutputStream(outputStream);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.flush();
+	}
+
+	/**
+	 * Legge un frame completo dallo stream (lato client, socket bloccante)
+	 * @param inputStream
+	 * @return payload del frame
+	 * @throws IOException
+	 */
+	public static byte[] read(InputStream inputStream) throws IOException {
+		DataInputStream in = new DataInputStream(inputStream);
+		int length = in.readInt();
+		checkLength(length);
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return payload;
+	}
+}
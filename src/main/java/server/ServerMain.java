@@ -2,36 +2,38 @@ package server;
 
 import common.dto.*;
 import common.enums.AnsiColor;
+import common.enums.TCPCommandEnum;
 import common.utils.WordleLogger;
+import server.entity.ClientSession;
+import server.entity.RequestLane;
 import server.entity.ServerConfig;
 import server.entity.User;
 import common.interfaces.NotifyEventInterface;
 import common.interfaces.ServerRmiInterface;
 import server.entity.WordleGameState;
 import server.exceptions.WordleException;
+import server.services.JournalService;
 import server.services.JsonService;
 import server.services.UserService;
 import server.services.WordleGameService;
-import server.tasks.RequestTask;
+import server.tasks.SnapshotTask;
+import server.tasks.StatsTask;
 import server.tasks.WordExtractorTask;
+import server.thread.Reactor;
 import server.thread.ServerShutdownHook;
 
 import java.io.IOException;
 import java.net.*;
-import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.rmi.AlreadyBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.RemoteObject;
 import java.rmi.server.UnicastRemoteObject;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -40,12 +42,15 @@ import static common.enums.ResponseCodeEnum.*;
 public class ServerMain extends RemoteObject implements ServerRmiInterface {
 
 	private static final WordleLogger logger = new WordleLogger(ServerMain.class.getName());
-	public static ThreadPoolExecutor poolExecutor;
+	public static RequestLane[] requestLanes;
+	private static final EnumMap<TCPCommandEnum, RequestLane> commandLanes = new EnumMap<>(TCPCommandEnum.class);
 	public static ScheduledExecutorService wordUpdateExecutor;
+	public static ScheduledExecutorService snapshotExecutor;
+	public static ScheduledExecutorService statsExecutor;
 	public static ServerSocketChannel socketChannel;
 	public static MulticastSocket multicastSocket;
+	public static Reactor[] reactors;
 	private static final HashMap<String, NotifyEventInterface> clients = new HashMap<>();
-	private static Selector selector;
 	private final UserService userService;
 	private final WordleGameService wordleGameService;
 
@@ -75,9 +80,19 @@ public class ServerMain extends RemoteObject implements ServerRmiInterface {
 		// Carico le configurazioni
 		ServerConfig.loadConfig();
 
-		// Inizializzo i servizi
+		// Inizializzo i servizi: il dizionario viene caricato in parallelo al caricamento degli utenti
+		long startNanos = System.nanoTime();
+		CompletableFuture<WordleGameService> wordleGameServiceLoad = CompletableFuture.supplyAsync(WordleGameService::getInstance);
 		this.userService = UserService.getInstance();
-		this.wordleGameService = WordleGameService.getInstance();
+		long usersNanos = System.nanoTime();
+		this.wordleGameService = wordleGameServiceLoad.join();
+		long servicesNanos = System.nanoTime();
+		// Riapplico allo snapshot le modifiche del journal successive
+		JournalService.getInstance().start();
+		long journalNanos = System.nanoTime();
+		logger.info("Caricamento dati completato in " + (journalNanos - startNanos) / 1000000 + " ms (utenti " +
+				(usersNanos - startNanos) / 1000000 + " ms, attesa dizionario " + (servicesNanos - usersNanos) / 1000000 +
+				" ms, journal " + (journalNanos - servicesNanos) / 1000000 + " ms)");
 
 		// Avvio il thread che si occupera' di estrarre la nuova parola
 		wordUpdateExecutor = Executors.newSingleThreadScheduledExecutor();
@@ -90,6 +105,9 @@ public class ServerMain extends RemoteObject implements ServerRmiInterface {
 			logger.info("Parola attuale: " + AnsiColor.WHITE_BOLD + state.word + AnsiColor.RESET + ", traduzione: " + state.translation);
 		}
 
+		// Inizializza le corsie dell'executor che esegue le richieste dei client (usate anche dalla registrazione RMI)
+		createRequestLanes();
+
 		// Inizializza RMI server
 		try {
 			// Esportazione oggetto
@@ -111,16 +129,20 @@ public class ServerMain extends RemoteObject implements ServerRmiInterface {
 
 		// Inizializza TCP server
 		try {
-			//Creo il channel
+			//Creo il channel, rimane bloccante: il main thread si occupa solo di accettare le connessioni
 			socketChannel = ServerSocketChannel.open();
 			ServerSocket socket = socketChannel.socket();
 			socket.bind(new InetSocketAddress(ServerConfig.TCP_PORT));
-			//Configuro il channel in modo da essere non bloccante
-			socketChannel.configureBlocking(false);
 
-			selector = Selector.open();
-			socketChannel.register(selector, SelectionKey.OP_ACCEPT, null);
+			// Creo i reactor che gestiranno letture e scritture sulle connessioni accettate
+			reactors = new Reactor[ServerConfig.TCP_REACTORS];
+			for (int i = 0; i < reactors.length; i++) {
+				reactors[i] = new Reactor(i);
+				reactors[i].start();
+			}
+			logger.info("TCP server in ascolto sulla porta " + ServerConfig.TCP_PORT + " con " + reactors.length + " reactor");
 		} catch (IOException e) {
+			logger.error("Errore durante inizializzazione TCP server! " + e.getMessage());
 			System.exit(-1);
 		}
 
@@ -132,112 +154,78 @@ public class ServerMain extends RemoteObject implements ServerRmiInterface {
 			System.exit(-1);
 		}
 
-		// Inizializza thread pool executor
-		int coreCount = Runtime.getRuntime().availableProcessors();
-		logger.debug("Creo una cached thread pool con dimensione massima " + coreCount*2);
-		poolExecutor = new ThreadPoolExecutor(0, coreCount*2, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000));
+		// Salvo periodicamente lo snapshot di utenti e gioco
+		snapshotExecutor = Executors.newSingleThreadScheduledExecutor();
+		snapshotExecutor.scheduleWithFixedDelay(new SnapshotTask(), ServerConfig.SNAPSHOT_INTERVAL_SECONDS, ServerConfig.SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+		// Stampo periodicamente le statistiche del server
+		statsExecutor = Executors.newSingleThreadScheduledExecutor();
+		statsExecutor.scheduleAtFixedRate(new StatsTask(), ServerConfig.STATS_INTERVAL_SECONDS, ServerConfig.STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
 	}
 
 	/**
-	 * Funzione principale del server, in ascolto di nuove connessioni, socket pronti in uscita e in ingresso
+	 * Crea le corsie dell'executor e assegna ogni comando TCP alla propria corsia
+	 */
+	private static void createRequestLanes() {
+
+		RequestLane gameLane = createLane("game", ServerConfig.GAME_LANE);
+		RequestLane authLane = createLane("auth", ServerConfig.AUTH_LANE);
+		RequestLane shareLane = createLane("share", ServerConfig.SHARE_LANE);
+		requestLanes = new RequestLane[]{gameLane, authLane, shareLane};
+
+		for (TCPCommandEnum command: TCPCommandEnum.values()) {
+			switch (command) {
+				case LOGIN:
+					commandLanes.put(command, authLane);
+					break;
+				case SHARE:
+					commandLanes.put(command, shareLane);
+					break;
+				default:
+					commandLanes.put(command, gameLane);
+			}
+		}
+	}
+
+	private static RequestLane createLane(String name, ServerConfig.LaneConfig config) {
+		return new RequestLane(name, config.threads, config.maxPending, config.priority, ServerConfig.VIRTUAL_THREADS);
+	}
+
+	/**
+	 * Ritorna la corsia dell'executor in cui eseguire il comando specificato
+	 * @param command
+	 * @return
+	 */
+	public static RequestLane getLane(TCPCommandEnum command) {
+		// Le richieste senza comando vengono rifiutate subito con BAD_REQUEST, le eseguo nella corsia di gioco
+		return command != null ? commandLanes.get(command) : requestLanes[0];
+	}
+
+	/**
+	 * Funzione principale del server, accetta le nuove connessioni e le assegna a turno ai reactor
 	 */
 	public void listen() {
 
-		// While in ascolto sui socket
-		while (true) {
+		int nextReactor = 0;
+
+		// While in ascolto di nuove connessioni
+		while (socketChannel.isOpen()) {
 
 			try {
-				// Bloccate, si ferma fino a quando almeno un canale non e' pronto
-				selector.select();
+				// Bloccante, si ferma fino a quando un client non si connette
+				SocketChannel client = socketChannel.accept();
+				logger.debug("Accettata nuova connessione TCP da client " + client.getRemoteAddress());
+				client.configureBlocking(false);
+				// Round robin tra i reactor
+				reactors[nextReactor].register(client);
+				nextReactor = (nextReactor + 1) % reactors.length;
+			} catch (ClosedChannelException e) {
+				// Socket chiuso dallo shutdown hook
+				break;
 			} catch (IOException e) {
-				logger.error("Errore durante la selezione di un canale!");
-				System.exit(-1);
-			}
-
-			Set<SelectionKey> selectedKeys = selector.selectedKeys();
-			// Iteratore delle chiavi
-			Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
-
-			// Fino a che ci sono canali pronti continuo a ciclare
-			while (keyIterator.hasNext()) {
-				SelectionKey key = keyIterator.next();
-				// Rimuovo la chiave dall'iteratore, il selector non rimuove automaticamente le chiavi
-				keyIterator.remove();
-
-				try {
-
-					// Nuova connessione dal client
-					if (key.isAcceptable()) {
-
-						ServerSocketChannel server = (ServerSocketChannel) key.channel();
-						// Accetto la nuova connessione
-						SocketChannel client = server.accept();
-						logger.debug("Accettata nuova connessione TCP da client " + client.getRemoteAddress());
-						client.configureBlocking(false);
-						// Aggiungo il client al selector su operazioni di READ
-						client.register(selector, SelectionKey.OP_READ, null);
-					}
-
-					// Canale pronto per la lettura
-					else if (key.isReadable()) {
-
-						SocketChannel client = (SocketChannel) key.channel();
-						SocketAddress clientAddress = client.getRemoteAddress();
-
-						TcpRequest clientMessage;
-						try {
-							// Leggo il messaggio in arrivo dal client
-							clientMessage = ServerMain.readTcpMessage(client);
-
-							// Se il messaggio e' vuoto potrebbe essere causato da una possibile disconnessione forzata del client
-							if (clientMessage == null) {
-								logger.warn("Disconnessione forzata del client " + clientAddress);
-								// Effettuo la disconnessione dell'utente utilizzando il suo hash code
-								userService.logout(clientAddress.hashCode());
-								client.close();
-								break;
-							}
-
-							// Registro il selettore per operazione di lettura
-							SelectionKey writeKey = client.register(selector, SelectionKey.OP_WRITE);
-							// Metto in coda alla threadpool il nuovo task da gestire
-							poolExecutor.submit(new RequestTask(writeKey, clientMessage));
-
-						} catch (Exception e) {
-							logger.error("Impossibile gestire nuova richiesta "+e);
-							// In caso di errore imprevisto invio un codice di errore generico al client
-							ServerMain.sendTcpMessage(client, new TcpResponse(INTERNAL_SERVER_ERROR));
-						}
-					}
-
-					// Canale pronto per la scrittura. Il canale potrebbe essere pronto ma il thread potrebbe non aver
-					// ancora messo nell'attachment la risposta da inviare al client
-					else if (key.isWritable() && key.attachment() != null) {
-
-						SocketChannel client = (SocketChannel) key.channel();
-						TcpResponse response = (TcpResponse) key.attachment();
-
-						if (response != null) {
-							// Invio la risposta al client
-							sendTcpMessage(client, response);
-							// Registro nuovamente il client per un operazione di lettura
-							client.register(selector, SelectionKey.OP_READ, null);
-						}
-					}
-
-				} catch (IOException ioe) {
-					// Errore imprevisto
-					key.cancel();
-					try {
-						key.channel().close();
-					} catch (IOException e) {
-						logger.error("Errore imprevisto! " + e);
-					}
-				}
-
+				logger.error("Errore durante accettazione nuova connessione! " + e);
 			}
-
 		}
 
 	}
@@ -250,7 +238,7 @@ public class ServerMain extends RemoteObject implements ServerRmiInterface {
 	 * @throws IllegalArgumentException
 	 */
 	@Override
-	public synchronized void register(String username, String password) throws RemoteException, WordleException {
+	public void register(String username, String password) throws RemoteException, WordleException {
 
 		// Controllo parametri
 		if (username.isEmpty()) {
@@ -267,11 +255,20 @@ public class ServerMain extends RemoteObject implements ServerRmiInterface {
 			throw new WordleException(USERNAME_ALREADY_USED);
 		}
 
-		// Aggiungo nuovo utente al sistema
+		// L'hash della password viene calcolato nella corsia auth, senza lock condivisi: limita il numero di hash
+		// concorrenti tra login e registrazioni
+		Future<User> newUser = getLane(TCPCommandEnum.LOGIN).submit(() -> new User(username, password, ServerConfig.PASSWORD_ITERATIONS));
+		if (newUser == null) {
+			throw new WordleException(SERVER_BUSY);
+		}
+
+		// Aggiungo nuovo utente al sistema, l'inserimento e' atomico: un'altra registrazione con lo stesso username
+		// potrebbe essere stata completata durante il calcolo dell'hash
 		try {
-			User newUser = new User(username, password);
-			this.userService.addUser(newUser);
-		} catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
+			this.userService.addUser(newUser.get());
+		} catch (IllegalArgumentException e) {
+			throw new WordleException(USERNAME_ALREADY_USED);
+		} catch (InterruptedException | ExecutionException e) {
 			logger.error("Impossibile registrare nuovo utente " + e);
 			throw new RemoteException(INTERNAL_SERVER_ERROR.name());
 		}
@@ -299,54 +296,24 @@ public class ServerMain extends RemoteObject implements ServerRmiInterface {
 	}
 
 	/**
-	 * Invia un messaggio JSON al client
-	 * @param socketChannel
-	 * @param request
-	 * @throws IOException
+	 * Accoda un messaggio da inviare al client e notifica il reactor della connessione, che lo serializzera' con il
+	 * codec scelto dal client (JSON o binario) e lo scrivera' sul canale
+	 * @param key
+	 * @param response
 	 */
-	public static void sendTcpMessage(SocketChannel socketChannel, TcpResponse request) throws IOException {
-
-		String json = JsonService.toJson(request);
-		ByteBuffer jsonRequest = ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
-		socketChannel.write(jsonRequest);
-	}
-
-	/**
-	 * Riceve un messaggio in formato JSON dal client e lo converte in un oggetto TcpRequest
-	 * @param socketChannel
-	 * @return
-	 * @throws IOException
-	 */
-	public static TcpRequest readTcpMessage(SocketChannel socketChannel) throws IOException {
-
-		final int BUFFER_SIZE = 1024;
-		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-		StringBuilder json = new StringBuilder();
-		int bytesRead;
-
-		while ((bytesRead = socketChannel.read(buffer)) > 0) {
-			// Metto il buffer in modalità lettura
-			buffer.flip();
-			json.append(StandardCharsets.UTF_8.decode(buffer));
-			// Metto il buffer in modalità scrittura e lo pulisco
-			buffer.flip();
-			buffer.clear();
-
-			// Se i byte letti sono meno della dimensione del buffer allora termino
-			if(bytesRead < BUFFER_SIZE)
-				break;
-		}
+	public static void sendTcpMessage(SelectionKey key, TcpResponse response) {
 
-		return JsonService.fromJson(json.toString(), TcpRequest.class);
+		ClientSession session = (ClientSession) key.attachment();
+		session.enqueue(response);
+		session.getReactor().complete(key);
 	}
 
 	/**
 	 * Invia il messaggio specificato sul gruppo di multicast
-	 * @param message
+	 * @param data messaggio codificato in UTF-8
 	 */
-	public static void sendMulticastMessage(String message) throws IOException {
+	public static void sendMulticastMessage(byte[] data) throws IOException {
 
-		byte[] data = message.getBytes(StandardCharsets.UTF_8);
 		InetAddress multicastAddress = InetAddress.getByName(ServerConfig.MULTICAST_IP);
 		DatagramPacket packet = new DatagramPacket(data, data.length, multicastAddress, ServerConfig.MULTICAST_PORT);
 		multicastSocket.send(packet);
@@ -0,0 +1,49 @@
+package server.entity;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool di ByteBuffer diretti riutilizzati per serializzare le risposte. Ogni reactor ha il proprio pool e lo usa
+ * solo dal proprio thread, quindi non serve sincronizzazione.
+ */
+public class BufferPool {
+
+	public static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 256;
+	private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+	private long allocatedBuffers = 0;
+
+	/**
+	 * Ritorna un buffer vuoto (in modalita' scrittura) dal pool, se il pool e' vuoto ne alloca uno nuovo
+	 * @return
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			allocatedBuffers++;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Restituisce un buffer al pool. I buffer che non provengono dal pool (es. risposte piu' grandi di BUFFER_SIZE)
+	 * vengono lasciati al garbage collector
+	 * @param buffer
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer.isDirect() && buffer.capacity() == BUFFER_SIZE && buffers.size() < MAX_POOLED_BUFFERS) {
+			buffer.clear();
+			buffers.push(buffer);
+		}
+	}
+
+	public int getFreeBuffers() {
+		return buffers.size();
+	}
+
+	public long getAllocatedBuffers() {
+		return allocatedBuffers;
+	}
+}
@@ -0,0 +1,313 @@
+package server.entity;
+
+import common.dto.TcpRequest;
+import common.dto.TcpResponse;
+import common.interfaces.TcpCodecInterface;
+import common.utils.BinaryTcpCodec;
+import common.utils.JsonTcpCodec;
+import common.utils.TcpFrame;
+import server.thread.Reactor;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Stato di una connessione TCP lato server, salvato nell'attachment della SelectionKey.
+ * Contiene il buffer di accumulo dei byte letti (un messaggio puo' arrivare in piu' letture), la coda delle
+ * risposte da inviare (una scrittura potrebbe non svuotare completamente il buffer) e le richieste inviate dal
+ * client in pipeline, che vengono eseguite una alla volta nell'ordine di arrivo.
+ */
+public class ClientSession {
+
+	private static final int READ_BUFFER_SIZE = 1024;
+	public static final int MAX_PIPELINED_REQUESTS = 32; // Oltre questo limite smetto di leggere dal client
+	private static final TcpCodecInterface JSON_CODEC = new JsonTcpCodec();
+	private static final TcpCodecInterface BINARY_CODEC = new BinaryTcpCodec();
+	private final Reactor reactor; // Reactor che gestisce la connessione
+	private TcpCodecInterface codec = null; // Scelto in base al primo byte ricevuto dal client
+	private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE); // In modalita' scrittura tranne durante la decodifica di un frame
+	private int bufferedBytes; // Byte presenti nel buffer di accumulo durante la decodifica di un frame
+	private final Queue<TcpResponse> responses = new ConcurrentLinkedQueue<>(); // Risposte accodate dai task
+	private ByteBuffer outBuffer = null; // Buffer in scrittura sul canale, usato solo dal thread del reactor
+	private final Queue<TcpRequest> pendingRequests = new ArrayDeque<>(); // Richieste in attesa di esecuzione
+	private boolean requestRunning = false; // Indica se una richiesta del client e' in esecuzione
+	private boolean readPaused = false; // Il server era saturo e ha rifiutato una richiesta, usato solo dal thread del reactor
+	private volatile User user = null; // Utente che ha effettuato il login sulla connessione
+	private long lastActivity; // Istante dell'ultima lettura dal client (ms), usato solo dal thread del reactor
+	private TimerWheel.Timeout<SelectionKey> idleTimeout = null; // Timeout di inattivita' programmato dal reactor
+
+	public ClientSession(Reactor reactor) {
+		this.reactor = reactor;
+	}
+
+	public Reactor getReactor() {
+		return reactor;
+	}
+
+	public TcpCodecInterface getCodec() {
+		return codec;
+	}
+
+	public boolean isReadPaused() {
+		return readPaused;
+	}
+
+	public void setReadPaused(boolean readPaused) {
+		this.readPaused = readPaused;
+	}
+
+	public boolean isAuthenticated() {
+		return user != null;
+	}
+
+	public User getUser() {
+		return user;
+	}
+
+	public void setUser(User user) {
+		this.user = user;
+	}
+
+	public long getLastActivity() {
+		return lastActivity;
+	}
+
+	public void setLastActivity(long lastActivity) {
+		this.lastActivity = lastActivity;
+	}
+
+	public void setIdleTimeout(TimerWheel.Timeout<SelectionKey> idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Ritorna true se il server sta lavorando per il client: una richiesta e' in esecuzione o in attesa, oppure ci
+	 * sono risposte da inviare. In questo caso la connessione non viene considerata inattiva
+	 * @return
+	 */
+	public synchronized boolean isBusy() {
+		return requestRunning || readPaused || hasPendingWrites();
+	}
+
+	/**
+	 * Legge dal canale i byte disponibili accodandoli al buffer di accumulo
+	 * @param channel
+	 * @return numero di byte letti, -1 se il client ha chiuso la connessione
+	 * @throws IOException
+	 */
+	public int read(SocketChannel channel) throws IOException {
+		// Il buffer e' pieno solo se contiene frame completi non ancora consumati
+		if (!readBuffer.hasRemaining()) {
+			return 0;
+		}
+		return channel.read(readBuffer);
+	}
+
+	/**
+	 * Cerca il prossimo frame completo nel buffer di accumulo. Il payload viene letto direttamente dal buffer, senza
+	 * copie: una volta decodificato il chiamante deve invocare releaseFrame()
+	 * @return il buffer di accumulo in modalita' lettura, con posizione e limite sul payload del frame. null se il
+	 * frame non e' ancora arrivato completamente
+	 * @throws IOException se l'header contiene una lunghezza non valida
+	 */
+	public ByteBuffer nextFrame() throws IOException {
+
+		// Il primo byte della connessione indica il codec scelto dal client
+		if (codec == null) {
+			if (readBuffer.position() == 0) {
+				return null;
+			}
+			if (readBuffer.get(0) == TcpFrame.BINARY_HANDSHAKE) {
+				codec = BINARY_CODEC;
+				// Rimuovo il byte di handshake dal buffer
+				readBuffer.flip();
+				readBuffer.get();
+				readBuffer.compact();
+			} else {
+				codec = JSON_CODEC;
+			}
+		}
+
+		if (readBuffer.position() < TcpFrame.HEADER_SIZE) {
+			return null;
+		}
+
+		int length = readBuffer.getInt(0);
+		TcpFrame.checkLength(length);
+		int frameSize = TcpFrame.HEADER_SIZE + length;
+
+		// Frame incompleto, mi assicuro che il buffer sia abbastanza grande da contenerlo
+		if (readBuffer.position() < frameSize) {
+			if (readBuffer.capacity() < frameSize) {
+				ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+				readBuffer.flip();
+				bigger.put(readBuffer);
+				readBuffer = bigger;
+			}
+			return null;
+		}
+
+		// Metto il buffer in modalita' lettura limitandolo al payload del frame
+		bufferedBytes = readBuffer.position();
+		readBuffer.position(TcpFrame.HEADER_SIZE);
+		readBuffer.limit(frameSize);
+		return readBuffer;
+	}
+
+	/**
+	 * Rimuove dal buffer di accumulo il frame ritornato da nextFrame(), mantenendo i byte dei frame successivi
+	 */
+	public void releaseFrame() {
+		int frameSize = readBuffer.limit();
+		readBuffer.limit(bufferedBytes);
+		readBuffer.position(frameSize);
+		readBuffer.compact();
+	}
+
+	/**
+	 * Accoda una richiesta del client. Le richieste della stessa connessione vengono eseguite in ordine perche'
+	 * possono dipendere l'una dall'altra (es. PLAY_WORDLE seguita da VERIFY_WORD)
+	 * @param request
+	 * @return true se la richiesta deve essere eseguita subito, false se e' stata messa in attesa
+	 */
+	public synchronized boolean offerRequest(TcpRequest request) {
+		if (requestRunning) {
+			pendingRequests.add(request);
+			return false;
+		}
+		requestRunning = true;
+		return true;
+	}
+
+	/**
+	 * Chiamato al termine dell'esecuzione di una richiesta
+	 * @return la prossima richiesta da eseguire, null se non ci sono richieste in attesa
+	 */
+	public synchronized TcpRequest nextRequest() {
+		TcpRequest next = pendingRequests.poll();
+		requestRunning = next != null;
+		return next;
+	}
+
+	/**
+	 * Ritorna true se il client puo' inviare altre richieste senza superare il limite della pipeline
+	 * @return
+	 */
+	public synchronized boolean canAcceptRequests() {
+		int inFlight = pendingRequests.size() + (requestRunning ? 1 : 0);
+		return inFlight < MAX_PIPELINED_REQUESTS;
+	}
+
+	/**
+	 * Accoda una risposta da inviare al client, verra' serializzata dal reactor al momento della scrittura
+	 * @param response
+	 */
+	public void enqueue(TcpResponse response) {
+		responses.add(response);
+	}
+
+	public boolean hasPendingWrites() {
+		return outBuffer != null || !responses.isEmpty();
+	}
+
+	/**
+	 * Serializza le risposte in coda nei buffer del pool del reactor e le scrive sul canale. Piu' risposte vengono
+	 * raccolte nello stesso buffer, se il canale non accetta tutti i byte il buffer viene mantenuto e completato
+	 * alla prossima OP_WRITE
+	 * @param channel
+	 * @param pool pool di buffer del reactor che gestisce la connessione
+	 * @return true se tutte le risposte sono state scritte
+	 * @throws IOException
+	 */
+	public boolean flush(SocketChannel channel, BufferPool pool) throws IOException {
+		while (true) {
+			if (outBuffer == null) {
+				if (responses.isEmpty()) {
+					return true;
+				}
+				outBuffer = pool.acquire();
+				TcpResponse response;
+				while ((response = responses.peek()) != null && encodeFrame(response, outBuffer)) {
+					responses.poll();
+				}
+				// La risposta non entra in un buffer vuoto del pool, uso un buffer dedicato
+				if (outBuffer.position() == 0) {
+					pool.release(outBuffer);
+					outBuffer = encodeLargeFrame(responses.poll());
+				}
+				outBuffer.flip();
+			}
+
+			channel.write(outBuffer);
+			if (outBuffer.hasRemaining()) {
+				return false;
+			}
+			pool.release(outBuffer);
+			outBuffer = null;
+		}
+	}
+
+	/**
+	 * Restituisce al pool il buffer in uscita e cancella il timeout di inattivita', da chiamare quando la connessione
+	 * viene chiusa
+	 * @param pool
+	 */
+	public void close(BufferPool pool) {
+		if (idleTimeout != null) {
+			idleTimeout.cancel();
+			idleTimeout = null;
+		}
+		if (outBuffer != null) {
+			pool.release(outBuffer);
+			outBuffer = null;
+		}
+	}
+
+	/**
+	 * Scrive header e payload della risposta nel buffer a partire dalla posizione corrente
+	 * @param response
+	 * @param out
+	 * @return false se il buffer non ha abbastanza spazio, in questo caso la posizione del buffer non cambia
+	 */
+	private boolean encodeFrame(TcpResponse response, ByteBuffer out) {
+		int start = out.position();
+		if (out.remaining() < TcpFrame.HEADER_SIZE) {
+			return false;
+		}
+		try {
+			out.position(start + TcpFrame.HEADER_SIZE);
+			codec.encodeResponse(response, out);
+			out.putInt(start, out.position() - start - TcpFrame.HEADER_SIZE);
+			return true;
+		} catch (BufferOverflowException e) {
+			out.position(start);
+			return false;
+		}
+	}
+
+	/**
+	 * Serializza una risposta che non entra in un buffer del pool, raddoppiando la dimensione del buffer fino alla
+	 * dimensione massima di un frame
+	 * @param response
+	 * @return
+	 * @throws ProtocolException se la risposta supera la dimensione massima di un frame
+	 */
+	private ByteBuffer encodeLargeFrame(TcpResponse response) throws ProtocolException {
+		int size = BufferPool.BUFFER_SIZE * 2;
+		while (size <= TcpFrame.HEADER_SIZE + TcpFrame.MAX_PAYLOAD_SIZE) {
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+			if (encodeFrame(response, buffer)) {
+				return buffer;
+			}
+			size *= 2;
+		}
+		throw new ProtocolException("Risposta troppo grande per un singolo frame");
+	}
+}
@@ -0,0 +1,69 @@
+package server.entity;
+
+import java.util.Date;
+
+/**
+ * Modifica allo stato del server registrata nel journal. Ogni entry contiene i dati necessari a riapplicare la
+ * modifica sull'ultimo snapshot, in modo idempotente: una modifica gia' presente nello snapshot viene ignorata
+ */
+public class JournalEntry {
+
+	public enum Type {
+		REGISTER, // Registrazione nuovo utente
+		NEW_GAME, // Nuova partita di un utente
+		GUESS, // Tentativo nell'ultima partita di un utente
+		END_GAME, // Partita terminata dal logout dell'utente
+		REMOVE_GAME, // Partita non terminata eliminata perche' la parola e' cambiata
+		WORD // Estrazione nuova parola
+	}
+
+	public Type type;
+	public String username;
+	public User user; // Solo REGISTER
+	public int gameNumber;
+	public String word; // Parola della partita (NEW_GAME, WORD) o tentativo (GUESS)
+	public int attempt; // Numero di tentativi della partita prima di GUESS
+	public String translation; // Solo WORD
+	public Date extractedAt; // Solo WORD
+
+	public static JournalEntry register(User user) {
+		JournalEntry entry = new JournalEntry(Type.REGISTER, user.getUsername(), 0);
+		entry.user = user;
+		return entry;
+	}
+
+	public static JournalEntry newGame(String username, String word, int gameNumber) {
+		JournalEntry entry = new JournalEntry(Type.NEW_GAME, username, gameNumber);
+		entry.word = word;
+		return entry;
+	}
+
+	public static JournalEntry guess(String username, int gameNumber, int attempt, String word) {
+		JournalEntry entry = new JournalEntry(Type.GUESS, username, gameNumber);
+		entry.attempt = attempt;
+		entry.word = word;
+		return entry;
+	}
+
+	public static JournalEntry endGame(String username, int gameNumber) {
+		return new JournalEntry(Type.END_GAME, username, gameNumber);
+	}
+
+	public static JournalEntry removeGame(String username, int gameNumber) {
+		return new JournalEntry(Type.REMOVE_GAME, username, gameNumber);
+	}
+
+	public static JournalEntry word(WordleGameState state) {
+		JournalEntry entry = new JournalEntry(Type.WORD, null, state.gameNumber);
+		entry.word = state.word;
+		entry.translation = state.translation;
+		entry.extractedAt = state.extractedAt;
+		return entry;
+	}
+
+	private JournalEntry(Type type, String username, int gameNumber) {
+		this.type = type;
+		this.username = username;
+		this.gameNumber = gameNumber;
+	}
+}
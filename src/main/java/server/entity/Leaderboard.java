@@ -0,0 +1,233 @@
+package server.entity;
+
+import common.dto.UserScore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Classifica degli utenti ordinata per punteggio decrescente (a parita' di punteggio per username). E' un treap in
+ * cui ogni nodo conosce la dimensione del proprio sottoalbero: aggiornamento del punteggio di un utente, posizione
+ * di un utente e accesso alla k-esima posizione costano O(log n), senza riordinare tutta la classifica.
+ * Non e' thread safe, la sincronizzazione e' compito del chiamante.
+ */
+public class Leaderboard {
+
+	private final HashMap<String, Integer> scores = new HashMap<>(); // Punteggio attuale di ogni utente in classifica
+	private final Random random = new Random();
+	private Node root = null;
+
+	/**
+	 * Spostamento di un utente in classifica dopo l'aggiornamento del suo punteggio
+	 */
+	public static class Move {
+		public final int oldPosition; // -1 se l'utente non era in classifica
+		public final int newPosition;
+
+		private Move(int oldPosition, int newPosition) {
+			this.oldPosition = oldPosition;
+			this.newPosition = newPosition;
+		}
+	}
+
+	private static class Node {
+		private final String username;
+		private final int score;
+		private final int priority;
+		private int size = 1;
+		private Node left, right;
+
+		private Node(String username, int score, int priority) {
+			this.username = username;
+			this.score = score;
+			this.priority = priority;
+		}
+	}
+
+	/**
+	 * Inserisce l'utente in classifica o ne aggiorna il punteggio
+	 * @param username
+	 * @param score
+	 * @return lo spostamento dell'utente, null se il punteggio non e' cambiato
+	 */
+	public Move update(String username, int score) {
+		Integer oldScore = scores.get(username);
+		if (oldScore != null && oldScore == score) {
+			return null;
+		}
+
+		int oldPosition = -1;
+		if (oldScore != null) {
+			oldPosition = positionOf(username, oldScore);
+			root = remove(root, username, oldScore);
+		}
+		root = insert(root, new Node(username, score, random.nextInt()));
+		scores.put(username, score);
+		return new Move(oldPosition, positionOf(username, score));
+	}
+
+	/**
+	 * Ritorna la posizione in classifica dell'utente (0 per il primo)
+	 * @param username
+	 * @return -1 se l'utente non e' in classifica
+	 */
+	public int positionOf(String username) {
+		Integer score = scores.get(username);
+		return score != null ? positionOf(username, score) : -1;
+	}
+
+	/**
+	 * Ritorna i primi k utenti della classifica
+	 * @param k
+	 * @return
+	 */
+	public List<UserScore> top(int k) {
+		return range(0, k);
+	}
+
+	/**
+	 * Ritorna gli utenti dalla posizione from (inclusa) alla posizione to (esclusa)
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public List<UserScore> range(int from, int to) {
+		from = Math.max(0, from);
+		to = Math.min(to, size());
+		List<UserScore> result = new ArrayList<>(Math.max(0, to - from));
+		collect(root, 0, from, to, result);
+		return result;
+	}
+
+	public int size() {
+		return size(root);
+	}
+
+	/**
+	 * Confronta due posizioni della classifica: punteggio decrescente, poi username crescente
+	 */
+	private static int compare(String username1, int score1, String username2, int score2) {
+		if (score1 != score2) {
+			return score1 > score2 ? -1 : 1;
+		}
+		return username1.compareTo(username2);
+	}
+
+	private int positionOf(String username, int score) {
+		int position = 0;
+		Node node = root;
+		while (node != null) {
+			int cmp = compare(username, score, node.username, node.score);
+			if (cmp < 0) {
+				node = node.left;
+			} else {
+				position += size(node.left);
+				if (cmp == 0) {
+					return position;
+				}
+				position++;
+				node = node.right;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Visita in ordine solo i sottoalberi che contengono posizioni nell'intervallo [from, to)
+	 * @param offset posizione in classifica del primo nodo del sottoalbero
+	 */
+	private static void collect(Node node, int offset, int from, int to, List<UserScore> result) {
+		if (node == null || offset >= to || offset + node.size <= from) {
+			return;
+		}
+		collect(node.left, offset, from, to, result);
+		int position = offset + size(node.left);
+		if (position >= from && position < to) {
+			result.add(new UserScore(node.username, node.score));
+		}
+		collect(node.right, position + 1, from, to, result);
+	}
+
+	private static Node insert(Node node, Node newNode) {
+		if (node == null) {
+			return newNode;
+		}
+		// Il nuovo nodo diventa radice del sottoalbero se ha priorita' maggiore
+		if (newNode.priority > node.priority) {
+			Node[] parts = split(node, newNode.username, newNode.score);
+			newNode.left = parts[0];
+			newNode.right = parts[1];
+			return update(newNode);
+		}
+		if (compare(newNode.username, newNode.score, node.username, node.score) < 0) {
+			node.left = insert(node.left, newNode);
+		} else {
+			node.right = insert(node.right, newNode);
+		}
+		return update(node);
+	}
+
+	private static Node remove(Node node, String username, int score) {
+		if (node == null) {
+			return null;
+		}
+		int cmp = compare(username, score, node.username, node.score);
+		if (cmp == 0) {
+			return merge(node.left, node.right);
+		}
+		if (cmp < 0) {
+			node.left = remove(node.left, username, score);
+		} else {
+			node.right = remove(node.right, username, score);
+		}
+		return update(node);
+	}
+
+	/**
+	 * Divide il sottoalbero in due: nodi che precedono la chiave e nodi che la seguono
+	 */
+	private static Node[] split(Node node, String username, int score) {
+		if (node == null) {
+			return new Node[]{null, null};
+		}
+		if (compare(node.username, node.score, username, score) < 0) {
+			Node[] parts = split(node.right, username, score);
+			node.right = parts[0];
+			parts[0] = update(node);
+			return parts;
+		}
+		Node[] parts = split(node.left, username, score);
+		node.left = parts[1];
+		parts[1] = update(node);
+		return parts;
+	}
+
+	/**
+	 * Unisce due sottoalberi in cui tutti i nodi di left precedono quelli di right
+	 */
+	private static Node merge(Node left, Node right) {
+		if (left == null) {
+			return right;
+		}
+		if (right == null) {
+			return left;
+		}
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			return update(left);
+		}
+		right.left = merge(left, right.left);
+		return update(right);
+	}
+
+	private static Node update(Node node) {
+		node.size = 1 + size(node.left) + size(node.right);
+		return node;
+	}
+
+	private static int size(Node node) {
+		return node != null ? node.size : 0;
+	}
+}
@@ -0,0 +1,160 @@
+package server.entity;
+
+import common.utils.WordleLogger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Corsia dell'executor delle richieste: ogni comando TCP viene eseguito nella corsia a cui e' assegnato, con thread,
+ * limite di richieste in attesa e priorita' propri. In questo modo i comandi pesanti (login, condivisione) non
+ * rallentano quelli di gioco che devono rispondere velocemente.
+ * La priorita' decide l'ammissione delle richieste quando il server e' carico: una corsia accetta richieste solo
+ * finche' le richieste in attesa di tutto il server sono meno di priority / Thread.MAX_PRIORITY del limite globale.
+ * Le corsie con priorita' piu' alta hanno quindi sempre una parte del limite riservata.
+ * Con i virtual thread il numero di thread viene ignorato, rimangono i limiti di richieste in attesa.
+ */
+public class RequestLane {
+
+	private static final WordleLogger logger = new WordleLogger(RequestLane.class.getName());
+	private final String name;
+	private final int maxPending;
+	private final int priority;
+	private final ExecutorService executor;
+
+	// Contatori della corsia. I tempi di attesa massimi vengono azzerati ad ogni stampa delle statistiche
+	private final AtomicInteger pendingTasks = new AtomicInteger(); // Richieste in coda o in esecuzione
+	private final AtomicLong completedTasks = new AtomicLong();
+	private final AtomicLong rejectedTasks = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong totalRunNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * @param name nome della corsia, usato per i thread e le statistiche
+	 * @param threads numero massimo di thread della corsia
+	 * @param maxPending numero massimo di richieste in coda o in esecuzione nella corsia
+	 * @param priority priorita' della corsia nell'ammissione delle richieste (Thread.MIN_PRIORITY - Thread.MAX_PRIORITY)
+	 * @param virtualThreads se true ogni richiesta viene eseguita su un virtual thread
+	 */
+	public RequestLane(String name, int threads, int maxPending, int priority, boolean virtualThreads) {
+		this.name = name;
+		this.maxPending = maxPending;
+		this.priority = priority;
+		this.executor = createExecutor(name, threads, maxPending, virtualThreads);
+	}
+
+	/**
+	 * Crea l'executor della corsia: un virtual thread per ogni richiesta oppure una thread pool
+	 */
+	private static ExecutorService createExecutor(String name, int threads, int maxPending, boolean virtualThreads) {
+
+		if (virtualThreads) {
+			logger.debug("Corsia " + name + ": un virtual thread per ogni richiesta, massimo " + maxPending + " richieste");
+			return Executors.newVirtualThreadPerTaskExecutor();
+		}
+
+		logger.debug("Corsia " + name + ": thread pool con " + threads + " thread, massimo " + maxPending + " richieste");
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> new Thread(runnable, "lane-" + name + "-" + threadCount.incrementAndGet());
+		// Con core size 0 la pool creerebbe nuovi thread solo a coda piena, uso core size = max size e lascio scadere
+		// i thread inattivi. La coda puo' contenere tutte le richieste ammesse nella corsia
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxPending), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Ritorna il numero di richieste in attesa di tutto il server oltre il quale la corsia non accetta richieste
+	 * @param maxPendingRequests limite globale di richieste in attesa
+	 * @return
+	 */
+	public int getAdmissionLimit(int maxPendingRequests) {
+		return Math.max(1, maxPendingRequests * this.priority / Thread.MAX_PRIORITY);
+	}
+
+	/**
+	 * Mette in coda un task nella corsia
+	 * @param task
+	 * @return false se la corsia ha raggiunto il limite di richieste in attesa
+	 */
+	public boolean submit(Runnable task) {
+		if (pendingTasks.incrementAndGet() > maxPending) {
+			pendingTasks.decrementAndGet();
+			rejectedTasks.incrementAndGet();
+			return false;
+		}
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			pendingTasks.decrementAndGet();
+			rejectedTasks.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Esegue nella corsia un task che ritorna un risultato (es. hash della password durante la registrazione RMI)
+	 * @param task
+	 * @return il risultato del task, null se la corsia ha raggiunto il limite di richieste in attesa
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		long submitNanos = System.nanoTime();
+		FutureTask<T> future = new FutureTask<>(() -> {
+			long startNanos = System.nanoTime();
+			try {
+				return task.call();
+			} finally {
+				taskCompleted(startNanos - submitNanos, System.nanoTime() - startNanos);
+			}
+		});
+		return submit((Runnable) future) ? future : null;
+	}
+
+	/**
+	 * Registra i tempi di un task della corsia, da chiamare al termine della sua esecuzione
+	 * @param waitNanos tempo trascorso in coda
+	 * @param runNanos tempo di esecuzione
+	 */
+	public void taskCompleted(long waitNanos, long runNanos) {
+		pendingTasks.decrementAndGet();
+		completedTasks.incrementAndGet();
+		totalWaitNanos.addAndGet(waitNanos);
+		totalRunNanos.addAndGet(runNanos);
+		maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Ritorna una descrizione dei contatori della corsia
+	 * @return
+	 */
+	public String getStats() {
+		long completed = completedTasks.get();
+		String stats = "corsia " + name + " (priorita' " + priority + "): in attesa " + pendingTasks.get() + "/" + maxPending +
+				", completate " + completed + ", rifiutate " + rejectedTasks.get();
+		if (completed > 0) {
+			stats += ", attesa media " + toMillis(totalWaitNanos.get() / completed) + " ms" +
+					" (max " + toMillis(maxWaitNanos.getAndSet(0)) + " ms)" +
+					", esecuzione media " + toMillis(totalRunNanos.get() / completed) + " ms";
+		}
+		if (executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			stats += ", in coda " + pool.getQueue().size() + ", thread attivi " + pool.getActiveCount() + "/" + pool.getMaximumPoolSize();
+		}
+		return stats;
+	}
+
+	private static String toMillis(long nanos) {
+		return String.format("%.2f", nanos / 1000000.0);
+	}
+}
@@ -10,17 +10,62 @@ public class ServerConfig {
 	private static final WordleLogger logger = new WordleLogger(ServerConfig.class.getName());
 	public final static String STUB_NAME = "WORDLE-SERVER";
 	public static int TCP_PORT;
+	public static int TCP_REACTORS;
+	public static int IDLE_GUEST_TIMEOUT_SECONDS; // Inattivita' massima di una connessione senza login
+	public static int IDLE_USER_TIMEOUT_SECONDS; // Inattivita' massima di una connessione con utente loggato
+	public static boolean VIRTUAL_THREADS; // Se true ogni richiesta viene eseguita su un virtual thread invece che nella pool
+	public static int MAX_PENDING_REQUESTS; // Richieste accettate e non ancora completate oltre le quali il server e' saturo
+	public static int BUSY_RETRY_AFTER_MS;
+	public static LaneConfig GAME_LANE;
+	public static LaneConfig AUTH_LANE;
+	public static LaneConfig SHARE_LANE;
 	public static int RMI_PORT;
 	public static String MULTICAST_IP;
 	public static int MULTICAST_PORT;
 	public static int WORD_TIME_MINUTES;
+	public static int PASSWORD_ITERATIONS; // Work factor dell'hash delle password
+	public static boolean JOURNAL_SYNC; // Se true le richieste rispondono solo dopo che le modifiche sono su disco
+	public static int SNAPSHOT_INTERVAL_SECONDS;
+	public static int SNAPSHOT_GENERATIONS; // Snapshot precedenti mantenuti su disco
+	public static long ARCHIVE_HOT_BYTES; // Memoria massima delle partite precedenti all'ultima (bytes)
 	public static int WORDLE_MAX_ATTEMPTS = 12;
+	public static int STATS_INTERVAL_SECONDS;
 
 	public static void loadConfig() {
 		// Leggi le configurazioni dal file
 		Properties properties = ConfigReader.readConfig();
 		try {
 			ServerConfig.TCP_PORT = Integer.parseInt(ConfigReader.readProperty(properties,"app.tcp.port"));
+			ServerConfig.TCP_REACTORS = Integer.parseInt(ConfigReader.readProperty(properties,"app.tcp.reactors"));
+			if (ServerConfig.TCP_REACTORS < 1) {
+				logger.error("Valore app.tcp.reactors invalido!");
+				System.exit(-1);
+			}
+			ServerConfig.IDLE_GUEST_TIMEOUT_SECONDS = Integer.parseInt(ConfigReader.readProperty(properties, "app.tcp.idle.guest.seconds"));
+			ServerConfig.IDLE_USER_TIMEOUT_SECONDS = Integer.parseInt(ConfigReader.readProperty(properties, "app.tcp.idle.user.seconds"));
+			if (ServerConfig.IDLE_GUEST_TIMEOUT_SECONDS < 1 || ServerConfig.IDLE_USER_TIMEOUT_SECONDS < 1) {
+				logger.error("Valore app.tcp.idle.guest.seconds o app.tcp.idle.user.seconds invalido!");
+				System.exit(-1);
+			}
+			String executorMode = ConfigReader.readProperty(properties, "app.executor.mode");
+			if (!executorMode.equals("pool") && !executorMode.equals("virtual")) {
+				logger.error("Valore app.executor.mode invalido! Valori ammessi: pool, virtual");
+				System.exit(-1);
+			}
+			ServerConfig.VIRTUAL_THREADS = executorMode.equals("virtual");
+			ServerConfig.MAX_PENDING_REQUESTS = Integer.parseInt(ConfigReader.readProperty(properties, "app.executor.max.pending"));
+			if (ServerConfig.MAX_PENDING_REQUESTS < 1) {
+				logger.error("Valore app.executor.max.pending invalido!");
+				System.exit(-1);
+			}
+			ServerConfig.BUSY_RETRY_AFTER_MS = Integer.parseInt(ConfigReader.readProperty(properties, "app.executor.busy.retry.ms"));
+			if (ServerConfig.BUSY_RETRY_AFTER_MS < 0) {
+				logger.error("Valore app.executor.busy.retry.ms invalido!");
+				System.exit(-1);
+			}
+			ServerConfig.GAME_LANE = readLaneConfig(properties, "game");
+			ServerConfig.AUTH_LANE = readLaneConfig(properties, "auth");
+			ServerConfig.SHARE_LANE = readLaneConfig(properties, "share");
 			ServerConfig.RMI_PORT = Integer.parseInt(ConfigReader.readProperty(properties,"app.rmi.port"));
 			ServerConfig.MULTICAST_IP = ConfigReader.readProperty(properties, "app.multicast.ip");
 			ServerConfig.MULTICAST_PORT = Integer.parseInt(ConfigReader.readProperty(properties, "app.multicast.port"));
@@ -29,6 +74,28 @@ public class ServerConfig {
 				logger.error("Valore app.wordle.word.time.minutes invalido!");
 				System.exit(-1);
 			}
+			ServerConfig.PASSWORD_ITERATIONS = Integer.parseInt(ConfigReader.readProperty(properties, "app.password.iterations"));
+			if (ServerConfig.PASSWORD_ITERATIONS < 1000) {
+				logger.error("Valore app.password.iterations invalido! Minimo 1000");
+				System.exit(-1);
+			}
+			ServerConfig.JOURNAL_SYNC = Boolean.parseBoolean(ConfigReader.readProperty(properties, "app.journal.sync"));
+			ServerConfig.SNAPSHOT_INTERVAL_SECONDS = Integer.parseInt(ConfigReader.readProperty(properties, "app.snapshot.interval.seconds"));
+			ServerConfig.SNAPSHOT_GENERATIONS = Integer.parseInt(ConfigReader.readProperty(properties, "app.snapshot.generations"));
+			if (ServerConfig.SNAPSHOT_INTERVAL_SECONDS < 1 || ServerConfig.SNAPSHOT_GENERATIONS < 0) {
+				logger.error("Valore app.snapshot.interval.seconds o app.snapshot.generations invalido!");
+				System.exit(-1);
+			}
+			ServerConfig.ARCHIVE_HOT_BYTES = Long.parseLong(ConfigReader.readProperty(properties, "app.archive.hot.mb")) * 1024 * 1024;
+			if (ServerConfig.ARCHIVE_HOT_BYTES < 0) {
+				logger.error("Valore app.archive.hot.mb invalido!");
+				System.exit(-1);
+			}
+			ServerConfig.STATS_INTERVAL_SECONDS = Integer.parseInt(ConfigReader.readProperty(properties, "app.stats.interval.seconds"));
+			if (ServerConfig.STATS_INTERVAL_SECONDS < 1) {
+				logger.error("Valore app.stats.interval.seconds invalido!");
+				System.exit(-1);
+			}
 		} catch (NoSuchFieldException e) {
 			logger.error("Parametro di configurazione non trovato! " + e.getMessage());
 			System.exit(-1);
@@ -37,4 +104,30 @@ public class ServerConfig {
 			System.exit(-1);
 		}
 	}
+
+	/**
+	 * Legge la configurazione di una corsia dell'executor (app.executor.lane.<nome>.*)
+	 * @param properties
+	 * @param lane
+	 * @return
+	 * @throws NoSuchFieldException
+	 */
+	private static LaneConfig readLaneConfig(Properties properties, String lane) throws NoSuchFieldException {
+		String prefix = "app.executor.lane." + lane + ".";
+		LaneConfig config = new LaneConfig();
+		config.threads = Integer.parseInt(ConfigReader.readProperty(properties, prefix + "threads"));
+		config.maxPending = Integer.parseInt(ConfigReader.readProperty(properties, prefix + "max.pending"));
+		config.priority = Integer.parseInt(ConfigReader.readProperty(properties, prefix + "priority"));
+		if (config.threads < 1 || config.maxPending < 1 || config.priority < Thread.MIN_PRIORITY || config.priority > Thread.MAX_PRIORITY) {
+			logger.error("Configurazione corsia " + lane + " invalida!");
+			System.exit(-1);
+		}
+		return config;
+	}
+
+	public static class LaneConfig {
+		public int threads;
+		public int maxPending;
+		public int priority;
+	}
 }
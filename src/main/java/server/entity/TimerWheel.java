@@ -0,0 +1,110 @@
+package server.entity;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel: i timeout vengono distribuiti in un array circolare di slot, ognuno corrispondente a un tick.
+ * Inserimento e cancellazione costano O(1) e ad ogni tick vengono esaminati solo i timeout dello slot corrente.
+ * Non ha un thread proprio: viene fatta avanzare dal loop del reactor, che la usa solo dal proprio thread.
+ * @param <T> oggetto associato ai timeout
+ */
+public class TimerWheel<T> {
+
+	private final ArrayDeque<Timeout<T>>[] slots;
+	private final long tickMillis;
+	private long currentTick; // Ultimo tick elaborato
+	private int size = 0; // Timeout attivi o cancellati non ancora rimossi dagli slot
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TimerWheel(int slotCount, long tickMillis) {
+		this.slots = new ArrayDeque[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			this.slots[i] = new ArrayDeque<>();
+		}
+		this.tickMillis = tickMillis;
+	}
+
+	/**
+	 * Programma un nuovo timeout
+	 * @param item oggetto passato alla callback alla scadenza
+	 * @param now istante attuale (ms)
+	 * @param delayMillis
+	 * @return il timeout, che puo' essere cancellato
+	 */
+	public Timeout<T> schedule(T item, long now, long delayMillis) {
+		// Se la ruota e' vuota non viene fatta avanzare, riparto dal tick attuale
+		if (size == 0) {
+			currentTick = Math.max(currentTick, now / tickMillis);
+		}
+		// Arrotondo per eccesso, il timeout non deve scadere prima del dovuto
+		long tick = Math.max((now + delayMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+		Timeout<T> timeout = new Timeout<>(item, tick);
+		slots[(int) (tick % slots.length)].add(timeout);
+		size++;
+		return timeout;
+	}
+
+	/**
+	 * Elabora i tick trascorsi fino all'istante specificato, chiamando la callback per ogni timeout scaduto.
+	 * La callback puo' programmare nuovi timeout
+	 * @param now istante attuale (ms)
+	 * @param expired
+	 */
+	public void advance(long now, Consumer<T> expired) {
+		long nowTick = now / tickMillis;
+		while (currentTick < nowTick && size > 0) {
+			currentTick++;
+			ArrayDeque<Timeout<T>> slot = slots[(int) (currentTick % slots.length)];
+			// Lo slot contiene anche timeout dei giri successivi della ruota, che vengono rimessi in coda
+			for (int i = slot.size(); i > 0; i--) {
+				Timeout<T> timeout = slot.poll();
+				if (timeout.cancelled) {
+					size--;
+				} else if (timeout.tick <= currentTick) {
+					size--;
+					expired.accept(timeout.item);
+				} else {
+					slot.add(timeout);
+				}
+			}
+		}
+		if (size == 0) {
+			currentTick = nowTick;
+		}
+	}
+
+	/**
+	 * Ritorna i millisecondi mancanti al prossimo tick, -1 se non ci sono timeout da gestire
+	 * @param now
+	 * @return
+	 */
+	public long millisToNextTick(long now) {
+		if (size == 0) {
+			return -1;
+		}
+		return Math.max(1, (currentTick + 1) * tickMillis - now);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public static class Timeout<T> {
+		private final T item;
+		private final long tick; // Tick in cui scade il timeout
+		private boolean cancelled = false;
+
+		private Timeout(T item, long tick) {
+			this.item = item;
+			this.tick = tick;
+		}
+
+		/**
+		 * Cancella il timeout, verra' rimosso dalla ruota quando il suo slot viene elaborato
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+}
@@ -1,12 +1,14 @@
 package server.entity;
 
-import client.entity.ClientConfig;
 import common.dto.GuessDistributionItem;
 import common.dto.UserStat;
 import common.entity.WordleGame;
+import server.services.GameArchive;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
@@ -15,31 +17,169 @@ import java.util.*;
 
 public class User {
 
+	public static final int LEGACY_PASSWORD_ITERATIONS = 65536; // Iterazioni usate dagli utenti salvati senza work factor
 	private final String username;
-	private final String password; // password hash
-	private final String salt; // Password salt
-	private List<WordleGame> games;
+	private String password; // password hash
+	private String salt; // Password salt
+	private int passwordIterations; // Work factor dell'hash della password (iterazioni PBKDF2), 0 per gli utenti legacy
+	private List<WordleGame> games; // Partite in memoria, l'ultima e' sempre presente
+	private transient GameArchive.Segment archivedGames; // Partite precedenti scritte nell'archivio su disco
+	// Serializza le operazioni sull'archivio dell'utente, che scrivono su disco senza il lock dell'utente.
+	// Va preso prima del lock dell'utente
+	private final transient Object archiveLock = new Object();
 	private int lastStreak = 0;
 	private int bestStreak = 0;
-	public transient boolean online;
-	public transient int clientHashCode;
+	// Statistiche aggregate delle partite, aggiornate ad ogni tentativo e salvate con l'utente
+	private int playedGames = 0; // Partite giocate, compresa quella in corso
+	private int totalAttempts = 0; // Tentativi fatti in tutte le partite
+	private int wonGames = 0;
+	private int attemptsWonGames = 0; // Tentativi fatti nelle partite vinte
+	private int[] wonGamesByAttempts; // Partite vinte per numero di tentativi (indice 0 = 1 tentativo), null nei file legacy
+	public transient volatile boolean online;
+	public transient ClientSession session; // Connessione su cui l'utente ha effettuato il login
 
-	public User(String username, String password) throws InvalidKeySpecException, NoSuchAlgorithmException {
+	/**
+	 * Crea un nuovo utente. L'hash della password e' costoso, non va chiamato tenendo lock condivisi
+	 * @param username
+	 * @param password
+	 * @param passwordIterations work factor dell'hash della password
+	 * @throws InvalidKeySpecException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public User(String username, String password, int passwordIterations) throws InvalidKeySpecException, NoSuchAlgorithmException {
 		this.username = username;
 		this.salt = generateRandomSalt();
-		this.password = hashPassword(password, Base64.getDecoder().decode(this.salt));
+		this.passwordIterations = passwordIterations;
+		this.password = hashPassword(password, Base64.getDecoder().decode(this.salt), passwordIterations);
+		this.wonGamesByAttempts = new int[ServerConfig.WORDLE_MAX_ATTEMPTS];
 		this.online = false;
 	}
 
+	/**
+	 * Costruttore usato da Gson durante il caricamento: inizializza i campi transient
+	 */
+	private User() {
+		this.username = null;
+	}
+
+	/**
+	 * Crea una copia dell'utente da salvare nello snapshot, senza lo stato della connessione
+	 * @param user
+	 */
+	private User(User user) {
+		this.username = user.username;
+		this.password = user.password;
+		this.salt = user.salt;
+		this.passwordIterations = user.passwordIterations;
+		if (user.games != null) {
+			this.games = new ArrayList<>(user.games.size());
+			for (WordleGame game: user.games) {
+				this.games.add(new WordleGame(game));
+			}
+		}
+		this.archivedGames = user.archivedGames;
+		this.lastStreak = user.lastStreak;
+		this.bestStreak = user.bestStreak;
+		this.playedGames = user.playedGames;
+		this.totalAttempts = user.totalAttempts;
+		this.wonGames = user.wonGames;
+		this.attemptsWonGames = user.attemptsWonGames;
+		this.wonGamesByAttempts = user.wonGamesByAttempts != null ? user.wonGamesByAttempts.clone() : null;
+		this.online = false;
+	}
+
+	/**
+	 * Ritorna una copia consistente dell'utente: la copia viene fatta tenendo il lock dell'utente, le modifiche
+	 * successive non la alterano. Permette di salvare l'utente senza bloccarlo durante la scrittura su file
+	 * @return
+	 */
+	public synchronized User snapshot() {
+		return new User(this);
+	}
+
+	/**
+	 * Ritorna una copia dell'utente con tutte le partite in memoria, rileggendo dall'archivio quelle precedenti.
+	 * Da usare solo sulle copie create con snapshot()
+	 * @param archive
+	 * @return
+	 * @throws IOException
+	 */
+	public User withArchivedGames(GameArchive archive) throws IOException {
+		if (this.archivedGames == null) {
+			return this;
+		}
+		List<WordleGame> allGames = archive.read(this.archivedGames);
+		if (this.games != null) {
+			allGames.addAll(this.games);
+		}
+		User user = new User(this);
+		user.games = allGames;
+		user.archivedGames = null;
+		return user;
+	}
+
+	/**
+	 * Sposta nell'archivio su disco tutte le partite tranne l'ultima. La scrittura avviene senza il lock dell'utente:
+	 * se nel frattempo le partite sono cambiate il blocco scritto viene scartato
+	 * @param archive
+	 * @return numero di partite archiviate
+	 * @throws IOException
+	 */
+	public int archiveOldGames(GameArchive archive) throws IOException {
+		synchronized (this.archiveLock) {
+			List<WordleGame> oldGames;
+			GameArchive.Segment previous;
+			synchronized (this) {
+				if (this.games == null || this.games.size() < 2) {
+					return 0;
+				}
+				oldGames = new ArrayList<>(this.games.subList(0, this.games.size() - 1));
+				previous = this.archivedGames;
+			}
+
+			GameArchive.Segment segment = archive.append(oldGames, previous);
+
+			synchronized (this) {
+				// Le partite vengono solo aggiunte o tolte in fondo: se c'e' ancora l'ultima partita archiviata, ci sono
+				// anche le precedenti
+				int archived = oldGames.size();
+				if (this.games == null || this.games.size() <= archived || this.games.get(archived - 1) != oldGames.get(archived - 1)) {
+					archive.discard(segment, previous);
+					return 0;
+				}
+				// Sostituisco la lista invece di modificarla: getLastGame() la legge senza lock
+				this.games = new ArrayList<>(this.games.subList(archived, this.games.size()));
+				this.archivedGames = segment;
+			}
+			archive.commit(segment, previous);
+			return oldGames.size();
+		}
+	}
+
+	/**
+	 * Ritorna una stima dei byte occupati in memoria dalle partite precedenti all'ultima
+	 * @return
+	 */
+	public synchronized long getHotBytes() {
+		long bytes = 0;
+		if (this.games != null) {
+			for (int i = 0; i < this.games.size() - 1; i++) {
+				bytes += this.games.get(i).getMemorySize();
+			}
+		}
+		return bytes;
+	}
+
 	/**
 	 * Effettua un hashing della password con algoritmo PBKDF2
 	 * @param password
 	 * @param salt
+	 * @param iterations
 	 * @return
 	 */
-	private static String hashPassword(String password, byte[] salt) throws InvalidKeySpecException, NoSuchAlgorithmException {
+	private static String hashPassword(String password, byte[] salt, int iterations) throws InvalidKeySpecException, NoSuchAlgorithmException {
 
-		KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 65536, 128);
+		KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 128);
 		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
 		byte[] hash = factory.generateSecret(spec).getEncoded();
 		return Base64.getEncoder().encodeToString(hash);
@@ -59,12 +199,73 @@ public class User {
 	}
 
 	/**
-	 * Verifica la password dell utente usando il salt salvato
+	 * Verifica la password dell utente usando il salt e il work factor salvati. Non richiede lock: hash, salt e
+	 * work factor vengono letti insieme e sostituiti solo da rehashPassword()
 	 * @param password
 	 * @return
 	 */
 	public boolean verifyPassword(String password) throws InvalidKeySpecException, NoSuchAlgorithmException {
-		return this.password.equals(hashPassword(password, Base64.getDecoder().decode(this.salt)));
+		String hash, salt;
+		int iterations;
+		synchronized (this) {
+			hash = this.password;
+			salt = this.salt;
+			iterations = getPasswordIterations();
+		}
+		return hash.equals(hashPassword(password, Base64.getDecoder().decode(salt), iterations));
+	}
+
+	/**
+	 * Ricalcola l'hash della password (gia' verificata) con un nuovo work factor. L'hash viene calcolato fuori dal
+	 * lock, solo la sostituzione dei campi e' atomica
+	 * @param password
+	 * @param iterations
+	 */
+	public void rehashPassword(String password, int iterations) throws InvalidKeySpecException, NoSuchAlgorithmException {
+		String newSalt = generateRandomSalt();
+		String newHash = hashPassword(password, Base64.getDecoder().decode(newSalt), iterations);
+		synchronized (this) {
+			this.salt = newSalt;
+			this.password = newHash;
+			this.passwordIterations = iterations;
+		}
+	}
+
+	/**
+	 * Ritorna il work factor dell'hash della password dell'utente
+	 * @return
+	 */
+	public synchronized int getPasswordIterations() {
+		return this.passwordIterations > 0 ? this.passwordIterations : LEGACY_PASSWORD_ITERATIONS;
+	}
+
+	/**
+	 * Segna l'utente come online sulla connessione specificata, in modo atomico
+	 * @param session
+	 * @return false se l'utente era gia' online
+	 */
+	public synchronized boolean setOnline(ClientSession session) {
+		if (this.online) {
+			return false;
+		}
+		this.online = true;
+		this.session = session;
+		return true;
+	}
+
+	/**
+	 * Segna l'utente come offline e termina la sua ultima partita
+	 * @param session connessione da cui viene fatto il logout, null per fare il logout da qualsiasi connessione
+	 * @return false se l'utente non era online sulla connessione specificata
+	 */
+	public synchronized boolean setOffline(ClientSession session) {
+		if (!this.online || (session != null && this.session != session)) {
+			return false;
+		}
+		this.online = false;
+		this.session = null;
+		this.endLastGame();
+		return true;
 	}
 
 	public String getUsername() {
@@ -76,10 +277,11 @@ public class User {
 	 * @return
 	 */
 	public WordleGame getLastGame() {
-		if(this.games == null || this.games.size() == 0) {
+		List<WordleGame> games = this.games; // La lista puo' essere sostituita dall'archiviazione
+		if(games == null || games.size() == 0) {
 			return null;
 		}
-		return this.games.get(this.games.size() - 1);
+		return games.get(games.size() - 1);
 	}
 
 	/**
@@ -87,73 +289,76 @@ public class User {
 	 * @param word
 	 * @return
 	 */
-	public void newGame(String word, int gameNumber) {
+	public synchronized void newGame(String word, int gameNumber) {
 		WordleGame game = new WordleGame(word, gameNumber);
 
 		if (this.games == null) {
 			this.games = new ArrayList<>();
+		} else if (!this.games.isEmpty()) {
+			// I suggerimenti servono solo per l'ultima partita
+			this.games.get(this.games.size() - 1).clearHintRows();
 		}
 
 		this.games.add(game);
+		this.playedGames++;
 	}
 
 	/**
-	 * Ritorna la media del numero di tenatativi fatti tra tutte le partite giocate
-	 * @return
+	 * Ricalcola le statistiche aggregate scorrendo tutte le partite. Necessario per gli utenti salvati prima che le
+	 * statistiche venissero salvate con l'utente
+	 * @return false se le statistiche erano gia' presenti
 	 */
-	public int averageAttempts() {
-		int avg = 0;
-		if (this.games == null || this.games.size() == 0) {
-			return 0;
+	public synchronized boolean rebuildStatsIfMissing() {
+		if (this.wonGamesByAttempts != null) {
+			return false;
 		}
-		for (WordleGame game: this.games) {
-			avg += game.getAttempts();
+		this.playedGames = 0;
+		this.totalAttempts = 0;
+		this.wonGames = 0;
+		this.attemptsWonGames = 0;
+		this.wonGamesByAttempts = new int[ServerConfig.WORDLE_MAX_ATTEMPTS];
+		if (this.games != null) {
+			for (WordleGame game: this.games) {
+				this.addGameStats(game, 1);
+			}
 		}
-		return avg / this.games.size();
+		return true;
 	}
 
 	/**
-	 * Ritorna il numero di vittorie dell'utente
-	 * @return
+	 * Aggiunge (sign = 1) o toglie (sign = -1) una partita dalle statistiche aggregate
+	 * @param game
+	 * @param sign
 	 */
-	private int wonGames() {
-		int wonGames = 0;
-		if (this.games == null) {
-			return 0;
+	private void addGameStats(WordleGame game, int sign) {
+		this.playedGames += sign;
+		this.totalAttempts += sign * game.getAttempts();
+		if (game.won) {
+			this.addWonGameStats(game.getAttempts(), sign);
 		}
-		for (WordleGame game: this.games) {
-			wonGames += game.won ? 1 : 0;
-		}
-
-		return  wonGames;
 	}
 
-	/**
-	 * Ritorna il numero di tentativi fatti in tutte le partite vinte dall'utente
-	 * @return
-	 */
-	private int attemptsWonGames() {
-		int attempts = 0;
-		for(WordleGame game: this.games) {
-			if (game.finished && game.won) {
-				attempts += game.getAttempts();
-			}
+	private void addWonGameStats(int attempts, int sign) {
+		this.wonGames += sign;
+		this.attemptsWonGames += sign * attempts;
+		if (this.wonGamesByAttempts == null) {
+			this.wonGamesByAttempts = new int[ServerConfig.WORDLE_MAX_ATTEMPTS];
+		}
+		// Il numero massimo di tentativi potrebbe essere cambiato rispetto alle partite salvate
+		if (attempts > this.wonGamesByAttempts.length) {
+			this.wonGamesByAttempts = Arrays.copyOf(this.wonGamesByAttempts, attempts);
+		}
+		if (attempts > 0) {
+			this.wonGamesByAttempts[attempts - 1] += sign;
 		}
-
-		return attempts;
 	}
 
 	/**
-	 * Ritorna il numero di partite vinte con un certo numero di tentativi
-	 * @param attempts
+	 * Ritorna la media del numero di tenatativi fatti tra tutte le partite giocate
 	 * @return
 	 */
-	private int wonGamesByAttempt(int attempts) {
-		int count = 0;
-		for (WordleGame game: this.games) {
-			count = game.won && game.getAttempts() == attempts ? count + 1 : count;
-		}
-		return count;
+	public synchronized int averageAttempts() {
+		return this.playedGames > 0 ? this.totalAttempts / this.playedGames : 0;
 	}
 
 	/**
@@ -162,13 +367,12 @@ public class User {
 	 */
 	private GuessDistributionItem[] getGuessDistribution() {
 		GuessDistributionItem[] guessDistribution = new GuessDistributionItem[ServerConfig.WORDLE_MAX_ATTEMPTS];
-		int wonGames = wonGames();
 
-		for(int i = 0; i < ClientConfig.WORDLE_MAX_ATTEMPTS; i++) {
+		for(int i = 0; i < guessDistribution.length; i++) {
 			guessDistribution[i] = new GuessDistributionItem();
 			guessDistribution[i].attemptNumber = i+1;
-			if (wonGames > 0)
-				guessDistribution[i].percentage = wonGamesByAttempt(i+1) * 100 / wonGames;
+			if (this.wonGames > 0 && i < this.wonGamesByAttempts.length)
+				guessDistribution[i].percentage = this.wonGamesByAttempts[i] * 100 / this.wonGames;
 		}
 
 		return guessDistribution;
@@ -178,14 +382,13 @@ public class User {
 	 * Ritorna le statistiche dell'utente
 	 * @return
 	 */
-	public UserStat getStat() {
+	public synchronized UserStat getStat() {
 		UserStat stat = new UserStat();
 
-		if (games != null && games.size() > 0) {
-			int wonGames = wonGames();
-			stat.playedGames = games.size();
-			stat.wonGamesPercentage = wonGames * 100 / games.size();
-			stat.avgAttemptsWonGames = wonGames > 0 ? (float) attemptsWonGames() / wonGames : 0;
+		if (this.playedGames > 0) {
+			stat.playedGames = this.playedGames;
+			stat.wonGamesPercentage = this.wonGames * 100 / this.playedGames;
+			stat.avgAttemptsWonGames = this.wonGames > 0 ? (float) this.attemptsWonGames / this.wonGames : 0;
 			stat.lastStreakWonGames = lastStreak;
 			stat.bestStreakWonGames = bestStreak;
 			stat.guessDistribution = this.getGuessDistribution();
@@ -197,11 +400,8 @@ public class User {
 	 * Calcola il punteggio di un utente
 	 * @return
 	 */
-	public int getScore() {
-		int wonGames = this.wonGames();
-		int avgAttempts = this.averageAttempts();
-
-		return wonGames * avgAttempts;
+	public synchronized int getScore() {
+		return this.wonGames * this.averageAttempts();
 	}
 
 	/**
@@ -210,11 +410,15 @@ public class User {
 	public synchronized void addGuessLastGame(String word) {
 		WordleGame lastGame = getLastGame();
 		lastGame.addGuess(word);
-		lastGame.won = word.equals(lastGame.word);
+		lastGame.won = lastGame.hasWord(word);
 		lastGame.finished = lastGame.getRemainingAttempts() == 0 || lastGame.won;
+		this.totalAttempts++;
 
 		// Se il gioco e' finito aggiorno le statistiche
 		if(lastGame.finished) {
+			if (lastGame.won) {
+				this.addWonGameStats(lastGame.getAttempts(), 1);
+			}
 			this.lastStreak = lastGame.won ? this.lastStreak+1 : 0;
 			this.bestStreak = Math.max(this.lastStreak, this.bestStreak);
 		}
@@ -231,11 +435,45 @@ public class User {
 	}
 
 	/**
-	 * Rimuove l'ultimo gioco dell'utente
+	 * Rimuove l'ultimo gioco dell'utente. Se non restano partite in memoria riprende dall'archivio l'ultima partita
+	 * archiviata, senza riscrivere le precedenti
 	 */
-	public synchronized void removeLastGame() {
-		if(this.games != null && this.games.size() > 0) {
-			this.games.remove(this.games.size() - 1);
+	public void removeLastGame() {
+		synchronized (this) {
+			if(this.games != null && this.games.size() > 0) {
+				this.addGameStats(this.games.remove(this.games.size() - 1), -1);
+			}
+			if (this.games == null || !this.games.isEmpty() || this.archivedGames == null) {
+				return;
+			}
+		}
+
+		// L'ultima partita deve restare in memoria: la rileggo dall'archivio senza il lock dell'utente
+		synchronized (this.archiveLock) {
+			GameArchive.Segment tail;
+			synchronized (this) {
+				if (!this.games.isEmpty() || this.archivedGames == null) {
+					return;
+				}
+				tail = this.archivedGames;
+			}
+
+			GameArchive archive = GameArchive.getInstance();
+			WordleGame lastArchived;
+			try {
+				lastArchived = archive.readLast(tail);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			synchronized (this) {
+				// Nel frattempo potrebbe essere iniziata una nuova partita, quella archiviata la precede
+				List<WordleGame> games = new ArrayList<>(this.games.size() + 1);
+				games.add(lastArchived);
+				games.addAll(this.games);
+				this.games = games;
+				this.archivedGames = archive.removeLast(tail, lastArchived);
+			}
 		}
 	}
 }
@@ -0,0 +1,85 @@
+package server.entity;
+
+import common.utils.PackedWord;
+
+/**
+ * Profilo di una parola da indovinare, calcolato una volta per parola: maschera delle lettere presenti e numero di
+ * occorrenze di ogni lettera. Permette di calcolare i suggerimenti di un tentativo in due passaggi sulle sue lettere
+ * e senza allocazioni. Il profilo e' immutabile e puo' essere condiviso tra i thread
+ */
+public class WordProfile {
+
+	// Stato di una lettera del tentativo, 2 bit per posizione nel risultato di score()
+	public static final int MISSING = 0; // Lettera non presente nella parola
+	public static final int PRESENT = 1; // Lettera presente in un'altra posizione
+	public static final int CORRECT = 2; // Lettera nella posizione corretta
+	private static final int STATUS_BITS = 2;
+	private static final long STATUS_MASK = (1L << STATUS_BITS) - 1;
+	// Occorrenze ancora disponibili durante score(), una copia per thread per non allocare ad ogni tentativo
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[26]);
+
+	private final long word;
+	private final int letterMask;
+	private final byte[] letterCounts = new byte[26];
+
+	/**
+	 * @param word parola codificata con PackedWord
+	 */
+	public WordProfile(long word) {
+		this.word = word;
+		this.letterMask = PackedWord.letterMask(word);
+		for (int i = 0; i < PackedWord.length(word); i++) {
+			this.letterCounts[PackedWord.charAt(word, i) - 'a']++;
+		}
+	}
+
+	public long getWord() {
+		return this.word;
+	}
+
+	/**
+	 * Calcola lo stato di ogni lettera del tentativo. Con le lettere ripetute valgono le regole di Wordle: una lettera
+	 * e' PRESENT solo se la parola ne contiene altre occorrenze non gia' indovinate (CORRECT) o segnalate in una
+	 * posizione precedente del tentativo
+	 * @param guess tentativo codificato con PackedWord
+	 * @return stato di ogni lettera, da leggere con status()
+	 */
+	public long score(long guess) {
+		int length = PackedWord.length(guess);
+		byte[] available = SCRATCH.get();
+		System.arraycopy(this.letterCounts, 0, available, 0, available.length);
+
+		// Posizioni indovinate: le loro occorrenze non sono disponibili per le altre posizioni
+		long result = 0;
+		for (int i = 0; i < length; i++) {
+			char letter = PackedWord.charAt(guess, i);
+			if (letter == PackedWord.charAt(this.word, i)) {
+				result |= (long) CORRECT << (i * STATUS_BITS);
+				available[letter - 'a']--;
+			}
+		}
+
+		// Le occorrenze rimaste vanno alle posizioni non indovinate, da sinistra
+		for (int i = 0; i < length; i++) {
+			if (status(result, i) == CORRECT) {
+				continue;
+			}
+			int letter = PackedWord.charAt(guess, i) - 'a';
+			if ((this.letterMask & (1 << letter)) != 0 && available[letter] > 0) {
+				available[letter]--;
+				result |= (long) PRESENT << (i * STATUS_BITS);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Ritorna lo stato della lettera in posizione specificata nel risultato di score()
+	 * @param score
+	 * @param position
+	 * @return MISSING, PRESENT o CORRECT
+	 */
+	public static int status(long score, int position) {
+		return (int) ((score >>> (position * STATUS_BITS)) & STATUS_MASK);
+	}
+}
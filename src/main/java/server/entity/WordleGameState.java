@@ -15,4 +15,15 @@ public class WordleGameState {
 		this.extractedAt = null;
 		this.gameNumber = 0;
 	}
+
+	/**
+	 * Crea una copia dello stato del gioco
+	 * @param state
+	 */
+	public WordleGameState(WordleGameState state) {
+		this.word = state.word;
+		this.translation = state.translation;
+		this.extractedAt = state.extractedAt;
+		this.gameNumber = state.gameNumber;
+	}
 }
@@ -0,0 +1,423 @@
+package server.services;
+
+import common.entity.WordleGame;
+import common.utils.WordleLogger;
+import server.entity.ServerConfig;
+import server.entity.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Archivio su disco delle partite concluse degli utenti (livello freddo). In memoria ogni utente mantiene solo
+ * l'ultima partita e le statistiche aggregate, le partite precedenti vengono scritte in blocchi nel file di archivio e
+ * rilette solo quando serve lo storico completo (snapshot su file).
+ * Le partite precedenti degli utenti attivi restano in memoria (livello caldo) finche' la loro occupazione stimata non
+ * supera app.archive.hot.mb: a quel punto vengono archiviate quelle degli utenti inattivi da piu' tempo (LRU).
+ * Lo spazio dei blocchi non piu' usati viene riutilizzato per i blocchi successivi e i blocchi di un utente vengono
+ * compattati in uno solo quando diventano troppi, quindi il file cresce solo con lo storico effettivo.
+ * L'archivio e' una cache: snapshot e journal contengono tutte le partite, il file viene ricreato ad ogni avvio.
+ */
+public class GameArchive {
+
+	private static final WordleLogger logger = new WordleLogger(GameArchive.class.getName());
+	private static final String ARCHIVE_PATH = "data/games.archive";
+	private static final int MAX_SEGMENTS_PER_USER = 8; // Oltre questo numero i blocchi di un utente vengono compattati
+	private static GameArchive instance = null;
+	private final FileChannel channel;
+
+	// Spazio del file, protetto dal lock dell'archivio (this)
+	private long size = 0; // Fine dell'ultimo blocco allocato
+	private final TreeMap<Long, Integer> freeByOffset = new TreeMap<>(); // Regioni libere: inizio -> lunghezza
+	private final TreeSet<Long> freeBySize = new TreeSet<>(); // Regioni libere ordinate per lunghezza, vedi freeKey()
+	private long freeBytes = 0;
+	// Regioni liberate mentre uno snapshot stava leggendo l'archivio: le copie degli utenti potrebbero ancora usarle
+	private final List<long[]> pendingFree = new ArrayList<>();
+	private int readers = 0;
+
+	// Utenti con partite precedenti in memoria, dal meno recente al piu' recente, con l'occupazione di tali partite
+	private final LinkedHashMap<User, Long> hotUsers = new LinkedHashMap<>(16, 0.75f, true);
+	private long hotBytes = 0;
+
+	// Contatori dell'archivio
+	private final AtomicLong archivedGames = new AtomicLong();
+	private final AtomicLong loadedGames = new AtomicLong();
+	private final AtomicLong evictedUsers = new AtomicLong();
+	private final AtomicLong compactions = new AtomicLong();
+
+	/**
+	 * Blocco di partite di un utente nell'archivio. I blocchi di un utente formano una lista, dal piu' recente al
+	 * meno recente; sono immutabili e possono essere condivisi tra le copie dell'utente
+	 */
+	public static class Segment {
+		private final long offset;
+		private final int length;
+		private final int games;
+		private final Segment previous;
+
+		private Segment(long offset, int length, int games, Segment previous) {
+			this.offset = offset;
+			this.length = length;
+			this.games = games;
+			this.previous = previous;
+		}
+
+		/**
+		 * Ritorna il numero di partite del blocco e dei blocchi precedenti
+		 * @return
+		 */
+		public int getGames() {
+			return this.games + (this.previous != null ? this.previous.getGames() : 0);
+		}
+
+		private int getSegments() {
+			return 1 + (this.previous != null ? this.previous.getSegments() : 0);
+		}
+	}
+
+	private GameArchive() {
+		try {
+			Path path = Paths.get(ARCHIVE_PATH);
+			Files.createDirectories(path.getParent());
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException e) {
+			logger.error("Impossibile creare l'archivio delle partite " + ARCHIVE_PATH + "! " + e);
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static synchronized GameArchive getInstance() {
+		if (instance == null) {
+			instance = new GameArchive();
+		}
+		return instance;
+	}
+
+	/**
+	 * Scrive un nuovo blocco di partite dell'utente. Se l'utente ha gia' troppi blocchi, il nuovo blocco contiene anche
+	 * le partite di quelli precedenti (compattazione). Il blocco diventa valido solo con commit(), altrimenti va
+	 * scartato con discard()
+	 * @param games
+	 * @param previous ultimo blocco dell'utente, null se non ha partite archiviate
+	 * @return il nuovo ultimo blocco dell'utente
+	 * @throws IOException
+	 */
+	public Segment append(List<WordleGame> games, Segment previous) throws IOException {
+		int gamesCount = games.size();
+		Segment chain = previous;
+		if (previous != null && previous.getSegments() >= MAX_SEGMENTS_PER_USER) {
+			List<WordleGame> allGames = this.read(previous);
+			allGames.addAll(games);
+			games = allGames;
+			chain = null;
+			this.compactions.incrementAndGet();
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (WordleGame game: games) {
+			game.writeTo(out);
+		}
+		out.flush();
+
+		// Ogni blocco ha la propria regione del file, le scritture posizionali possono essere concorrenti
+		long offset = this.allocate(bytes.size());
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		long position = offset;
+		try {
+			while (buffer.hasRemaining()) {
+				position += this.channel.write(buffer, position);
+			}
+		} catch (IOException e) {
+			this.free(offset, bytes.size());
+			throw e;
+		}
+		this.archivedGames.addAndGet(gamesCount);
+		return new Segment(offset, bytes.size(), games.size(), chain);
+	}
+
+	/**
+	 * Conferma un blocco scritto con append() dopo averlo assegnato all'utente: se era una compattazione libera lo
+	 * spazio dei blocchi precedenti
+	 * @param segment
+	 * @param previous blocco passato ad append()
+	 */
+	public void commit(Segment segment, Segment previous) {
+		if (segment.previous != previous) {
+			this.free(previous, null);
+		}
+	}
+
+	/**
+	 * Scarta un blocco scritto con append() che non e' stato assegnato all'utente
+	 * @param segment
+	 * @param previous blocco passato ad append()
+	 */
+	public void discard(Segment segment, Segment previous) {
+		this.free(segment, segment.previous);
+		this.archivedGames.addAndGet(-(segment.getGames() - (previous != null ? previous.getGames() : 0)));
+	}
+
+	/**
+	 * Rilegge dal disco le partite dei blocchi, dalla meno recente
+	 * @param segment ultimo blocco dell'utente
+	 * @return
+	 * @throws IOException
+	 */
+	public List<WordleGame> read(Segment segment) throws IOException {
+		List<WordleGame> games = new ArrayList<>(segment != null ? segment.getGames() : 0);
+		this.read(segment, games);
+		this.loadedGames.addAndGet(games.size());
+		return games;
+	}
+
+	private void read(Segment segment, List<WordleGame> games) throws IOException {
+		if (segment == null) {
+			return;
+		}
+		this.read(segment.previous, games);
+		this.readSegment(segment, games);
+	}
+
+	private void readSegment(Segment segment, List<WordleGame> games) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(segment.length);
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, segment.offset + buffer.position()) < 0) {
+				throw new IOException("Blocco dell'archivio incompleto");
+			}
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+		for (int i = 0; i < segment.games; i++) {
+			games.add(WordleGame.readFrom(in));
+		}
+	}
+
+	/**
+	 * Rilegge solo l'ultima partita archiviata dell'utente
+	 * @param segment ultimo blocco dell'utente
+	 * @return
+	 * @throws IOException
+	 */
+	public WordleGame readLast(Segment segment) throws IOException {
+		List<WordleGame> games = new ArrayList<>(segment.games);
+		this.readSegment(segment, games);
+		this.loadedGames.incrementAndGet();
+		return games.get(games.size() - 1);
+	}
+
+	/**
+	 * Ritorna i blocchi dell'utente senza l'ultima partita, che deve essere stata riletta con readLast(). Il blocco
+	 * viene accorciato senza riscrivere le partite precedenti; lo spazio della partita viene liberato
+	 * @param segment ultimo blocco dell'utente
+	 * @param lastGame ultima partita del blocco
+	 * @return il nuovo ultimo blocco dell'utente, null se non ha altre partite archiviate
+	 */
+	public Segment removeLast(Segment segment, WordleGame lastGame) {
+		int lastLength = lastGame.getEncodedSize();
+		this.free(segment.offset + segment.length - lastLength, lastLength);
+		this.archivedGames.decrementAndGet();
+		if (segment.games == 1) {
+			return segment.previous;
+		}
+		return new Segment(segment.offset, segment.length - lastLength, segment.games - 1, segment.previous);
+	}
+
+	/**
+	 * Da chiamare prima di copiare gli utenti per uno snapshot: finche' la lettura non termina (endRead()) lo spazio
+	 * liberato non viene riutilizzato, perche' le copie possono fare riferimento ai blocchi precedenti
+	 */
+	public synchronized void beginRead() {
+		this.readers++;
+	}
+
+	public synchronized void endRead() {
+		if (--this.readers == 0) {
+			for (long[] region: this.pendingFree) {
+				this.release(region[0], (int) region[1]);
+			}
+			this.pendingFree.clear();
+		}
+	}
+
+	/**
+	 * Alloca una regione del file, riusando la regione libera piu' piccola sufficiente
+	 */
+	private synchronized long allocate(int length) {
+		Long free = this.freeBySize.ceiling(freeKey(length, 0));
+		if (free == null) {
+			long offset = this.size;
+			this.size += length;
+			return offset;
+		}
+		long offset = free & OFFSET_MASK;
+		int freeLength = this.freeByOffset.get(offset);
+		this.removeFree(offset, freeLength);
+		if (freeLength > length) {
+			this.addFree(offset + length, freeLength - length);
+		}
+		return offset;
+	}
+
+	/**
+	 * Libera i blocchi da segment (compreso) fino a last (escluso)
+	 */
+	private void free(Segment segment, Segment last) {
+		for (Segment current = segment; current != null && current != last; current = current.previous) {
+			this.free(current.offset, current.length);
+		}
+	}
+
+	private synchronized void free(long offset, int length) {
+		if (length == 0) {
+			return;
+		}
+		if (this.readers > 0) {
+			this.pendingFree.add(new long[]{offset, length});
+		} else {
+			this.release(offset, length);
+		}
+	}
+
+	/**
+	 * Rende disponibile la regione, unendola alle regioni libere adiacenti
+	 */
+	private void release(long offset, int length) {
+		Map.Entry<Long, Integer> before = this.freeByOffset.floorEntry(offset);
+		if (before != null && before.getKey() + before.getValue() == offset) {
+			this.removeFree(before.getKey(), before.getValue());
+			offset = before.getKey();
+			length += before.getValue();
+		}
+		Integer after = this.freeByOffset.get(offset + length);
+		if (after != null) {
+			this.removeFree(offset + length, after);
+			length += after;
+		}
+		if (offset + length == this.size) {
+			// Regione in fondo al file: accorcio il file
+			this.size = offset;
+			try {
+				this.channel.truncate(this.size);
+			} catch (IOException e) {
+				logger.warn("Impossibile accorciare l'archivio delle partite " + e);
+			}
+		} else {
+			this.addFree(offset, length);
+		}
+	}
+
+	private static final int OFFSET_BITS = 40; // Offset fino a 1 TB
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+	private static long freeKey(int length, long offset) {
+		return ((long) length << OFFSET_BITS) | offset;
+	}
+
+	private void addFree(long offset, int length) {
+		this.freeByOffset.put(offset, length);
+		this.freeBySize.add(freeKey(length, offset));
+		this.freeBytes += length;
+	}
+
+	private void removeFree(long offset, int length) {
+		this.freeByOffset.remove(offset);
+		this.freeBySize.remove(freeKey(length, offset));
+		this.freeBytes -= length;
+	}
+
+	/**
+	 * Segnala che l'utente ha giocato: diventa il piu' recente del livello caldo. Se le partite precedenti in memoria
+	 * superano il limite vengono archiviate quelle degli utenti inattivi da piu' tempo
+	 * @param user
+	 */
+	public void touch(User user) {
+		List<User> evicted = new ArrayList<>();
+		synchronized (this.hotUsers) {
+			long userBytes = user.getHotBytes();
+			Long previousBytes = this.hotUsers.put(user, userBytes);
+			this.hotBytes += userBytes - (previousBytes != null ? previousBytes : 0);
+
+			Iterator<Map.Entry<User, Long>> eldest = this.hotUsers.entrySet().iterator();
+			while (this.hotBytes > ServerConfig.ARCHIVE_HOT_BYTES && eldest.hasNext()) {
+				Map.Entry<User, Long> entry = eldest.next();
+				if (entry.getKey() == user) {
+					continue;
+				}
+				this.hotBytes -= entry.getValue();
+				evicted.add(entry.getKey());
+				eldest.remove();
+			}
+		}
+
+		// L'archiviazione scrive su disco, viene fatta fuori dal lock del livello caldo
+		for (User eldestUser: evicted) {
+			this.archive(eldestUser);
+			this.evictedUsers.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Archivia le partite precedenti dell'utente, senza inserirlo nel livello caldo (es. durante il caricamento)
+	 * @param user
+	 */
+	public void archive(User user) {
+		try {
+			user.archiveOldGames(this);
+		} catch (IOException e) {
+			// Le partite restano in memoria
+			logger.error("Impossibile archiviare le partite dell'utente " + user.getUsername() + " " + e);
+		}
+	}
+
+	/**
+	 * Chiude ed elimina l'archivio, da chiamare dopo l'ultimo snapshot
+	 */
+	public void close() {
+		try {
+			this.channel.close();
+			Files.deleteIfExists(Paths.get(ARCHIVE_PATH));
+		} catch (IOException e) {
+			logger.warn("Impossibile eliminare l'archivio delle partite " + e);
+		}
+	}
+
+	/**
+	 * Ritorna una descrizione dei contatori dell'archivio
+	 * @return
+	 */
+	public String getStats() {
+		int hotUsersCount;
+		long hotBytesCount;
+		synchronized (this.hotUsers) {
+			hotUsersCount = this.hotUsers.size();
+			hotBytesCount = this.hotBytes;
+		}
+		long archiveSize, archiveFree;
+		synchronized (this) {
+			archiveSize = this.size;
+			archiveFree = this.freeBytes;
+		}
+		return "archivio partite: in memoria " + hotBytesCount / 1024 + "/" + ServerConfig.ARCHIVE_HOT_BYTES / 1024 +
+				" KB di " + hotUsersCount + " utenti, archiviate " + this.archivedGames.get() + " (file " +
+				archiveSize / 1024 + " KB, liberi " + archiveFree / 1024 + " KB), rilette " + this.loadedGames.get() +
+				", utenti archiviati per inattivita' " + this.evictedUsers.get() + ", compattazioni " + this.compactions.get();
+	}
+}
@@ -0,0 +1,470 @@
+package server.services;
+
+import com.google.gson.JsonSyntaxException;
+import common.entity.WordleGame;
+import common.utils.WordleLogger;
+import server.entity.JournalEntry;
+import server.entity.ServerConfig;
+import server.entity.User;
+import server.entity.WordleGameState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Journal append-only delle modifiche allo stato del server (utenti, partite, parola estratta). Ogni modifica e' una
+ * riga json aggiunta in fondo al file: il costo di una scrittura e' proporzionale alla modifica e non alla quantita'
+ * di dati. Le righe vengono scritte da un unico thread che le raggruppa: un solo fsync per tutte le modifiche
+ * arrivate durante il fsync precedente (group commit).
+ * Il journal e' diviso in segmenti (data/journal.N.log): prima di ogni snapshot si passa a un nuovo segmento, dopo
+ * lo snapshot i segmenti precedenti non servono piu' e vengono eliminati.
+ * All'avvio viene caricato l'ultimo snapshot (users.json, wordle.json) e vengono riapplicate le modifiche del journal.
+ */
+public class JournalService {
+
+	private static final WordleLogger logger = new WordleLogger(JournalService.class.getName());
+	private static final String JOURNAL_DIR = "data";
+	private static final Pattern SEGMENT_NAME = Pattern.compile("journal\\.(\\d+)\\.log");
+	private static final int MAX_BATCH_ENTRIES = 1024; // Righe massime scritte con un solo fsync
+	private static final PendingWrite CLOSE = new PendingWrite(null); // Segnala al writer di terminare
+	private static JournalService instance = null;
+	private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+	private FileChannel channel = null; // Segmento in scrittura, usato solo dal writer dopo l'avvio
+	private volatile int segment = 0; // Numero del segmento in scrittura
+	private Thread writer = null;
+	private volatile boolean open = false;
+
+	// Contatori del journal
+	private final AtomicLong enqueuedEntries = new AtomicLong();
+	private final AtomicLong writtenEntries = new AtomicLong();
+	private final AtomicLong syncCount = new AtomicLong();
+	private final AtomicLong totalSyncNanos = new AtomicLong();
+
+	/**
+	 * Riga del journal in attesa di essere scritta, done viene completato dopo il fsync. Senza riga e' una richiesta
+	 * al writer: chiusura (CLOSE) o passaggio al segmento successivo
+	 */
+	private static class PendingWrite {
+		private final byte[] line;
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		private PendingWrite(byte[] line) {
+			this.line = line;
+		}
+	}
+
+	private JournalService() {}
+
+	public static synchronized JournalService getInstance() {
+		if (instance == null) {
+			instance = new JournalService();
+		}
+		return instance;
+	}
+
+	/**
+	 * Riapplica le modifiche del journal allo snapshot caricato dai servizi e apre il journal in scrittura.
+	 * Da chiamare dopo l'avvio di UserService e WordleGameService e prima di accettare richieste
+	 */
+	public void start() {
+		try {
+			Files.createDirectories(Paths.get(JOURNAL_DIR));
+			List<Integer> segments = this.listSegments();
+			for (int oldSegment: segments) {
+				this.replay(segmentPath(oldSegment));
+			}
+			// Non riprendo a scrivere sull'ultimo segmento, che potrebbe terminare con una riga incompleta
+			this.segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+			this.channel = FileChannel.open(segmentPath(this.segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			logger.error("Impossibile aprire il journal in " + JOURNAL_DIR + "! " + e);
+			throw new RuntimeException(e);
+		}
+
+		this.writer = new Thread(this::writeLoop, "journal-writer");
+		this.writer.start();
+		this.open = true;
+	}
+
+	private static Path segmentPath(int segment) {
+		return Paths.get(JOURNAL_DIR, "journal." + segment + ".log");
+	}
+
+	/**
+	 * Ritorna i numeri dei segmenti del journal presenti su disco, in ordine crescente
+	 * @return
+	 * @throws IOException
+	 */
+	private List<Integer> listSegments() throws IOException {
+		List<Integer> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(JOURNAL_DIR), "journal.*.log")) {
+			for (Path file: files) {
+				Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					segments.add(Integer.parseInt(matcher.group(1)));
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Aggiunge una modifica al journal. Se app.journal.sync e' true attende che la modifica sia su disco
+	 * @param entry
+	 */
+	public void append(JournalEntry entry) {
+		this.await(this.enqueue(entry));
+	}
+
+	/**
+	 * Mette in coda una modifica senza attendere la scrittura. La modifica viene serializzata subito, sul thread
+	 * chiamante: le righe vengono scritte nell'ordine di chiamata
+	 * @param entry
+	 * @return future completato quando la modifica e' su disco
+	 */
+	public CompletableFuture<Void> enqueue(JournalEntry entry) {
+		// Durante il replay e dopo la chiusura le modifiche non vengono registrate
+		if (!this.open) {
+			return CompletableFuture.completedFuture(null);
+		}
+		PendingWrite write = new PendingWrite((JsonService.toJsonLine(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+		this.queue.add(write);
+		this.enqueuedEntries.incrementAndGet();
+		return write.done;
+	}
+
+	/**
+	 * Attende la scrittura di una modifica messa in coda con enqueue, se app.journal.sync e' true
+	 * @param done
+	 */
+	public void await(CompletableFuture<?> done) {
+		if (!ServerConfig.JOURNAL_SYNC) {
+			return;
+		}
+		try {
+			done.get();
+		} catch (ExecutionException e) {
+			// Lo stato in memoria resta valido, la modifica verra' salvata con il prossimo snapshot
+			logger.error("Modifica non registrata nel journal! " + e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Passa a un nuovo segmento del journal: le modifiche messe in coda dopo questa chiamata vengono scritte nel nuovo
+	 * segmento. Da chiamare prima di copiare lo stato per uno snapshot
+	 * @return numero dell'ultimo segmento completo, che puo' essere eliminato dopo lo snapshot. 0 se il journal non e'
+	 * aperto
+	 */
+	public int roll() {
+		if (!this.open) {
+			return 0;
+		}
+		int previousSegment = this.segment;
+		PendingWrite roll = new PendingWrite(null);
+		this.queue.add(roll);
+		try {
+			roll.done.get();
+			return previousSegment;
+		} catch (ExecutionException e) {
+			logger.error("Impossibile passare a un nuovo segmento del journal! " + e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return 0;
+	}
+
+	/**
+	 * Elimina i segmenti del journal fino a quello specificato (incluso). Da chiamare solo dopo aver salvato uno
+	 * snapshot che contiene tutte le modifiche dei segmenti
+	 * @param lastSegment
+	 */
+	public void deleteSegments(int lastSegment) {
+		try {
+			for (int oldSegment: this.listSegments()) {
+				if (oldSegment <= lastSegment) {
+					Files.deleteIfExists(segmentPath(oldSegment));
+				}
+			}
+		} catch (IOException e) {
+			// Non e' un errore grave: al prossimo avvio le modifiche gia' presenti nello snapshot vengono ignorate
+			logger.warn("Impossibile eliminare i segmenti del journal " + e);
+		}
+	}
+
+	/**
+	 * Thread writer: scrive le righe in coda e le rende persistenti con un solo fsync per gruppo
+	 */
+	private void writeLoop() {
+		List<PendingWrite> batch = new ArrayList<>();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		boolean closing = false;
+
+		while (!closing) {
+			try {
+				batch.add(this.queue.take());
+			} catch (InterruptedException e) {
+				break;
+			}
+			this.queue.drainTo(batch, MAX_BATCH_ENTRIES - 1);
+
+			int from = 0;
+			for (int i = 0; i < batch.size() && !closing; i++) {
+				PendingWrite request = batch.get(i);
+				if (request.line != null) {
+					continue;
+				}
+				// Le righe messe in coda prima della richiesta vanno nel segmento attuale
+				this.flush(batch.subList(from, i), buffer);
+				from = i + 1;
+				if (request == CLOSE) {
+					closing = true;
+				} else {
+					this.nextSegment(request);
+				}
+			}
+			if (!closing) {
+				this.flush(batch.subList(from, batch.size()), buffer);
+			} else {
+				// Modifiche arrivate durante la chiusura: non vengono scritte, sblocco chi le attende
+				for (PendingWrite write: batch.subList(from, batch.size())) {
+					write.done.complete(null);
+				}
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Scrive le righe nel segmento attuale con un solo fsync
+	 * @param writes
+	 * @param buffer
+	 */
+	private void flush(List<PendingWrite> writes, ByteArrayOutputStream buffer) {
+		if (writes.isEmpty()) {
+			return;
+		}
+		buffer.reset();
+		for (PendingWrite write: writes) {
+			buffer.write(write.line, 0, write.line.length);
+		}
+
+		try {
+			ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+			while (bytes.hasRemaining()) {
+				this.channel.write(bytes);
+			}
+			long startNanos = System.nanoTime();
+			this.channel.force(false);
+			this.totalSyncNanos.addAndGet(System.nanoTime() - startNanos);
+			this.syncCount.incrementAndGet();
+			this.writtenEntries.addAndGet(writes.size());
+			for (PendingWrite write: writes) {
+				write.done.complete(null);
+			}
+		} catch (IOException e) {
+			logger.error("Errore scrittura journal! " + e);
+			for (PendingWrite write: writes) {
+				write.done.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Chiude il segmento attuale e apre il successivo, eseguito dal writer
+	 * @param request
+	 */
+	private void nextSegment(PendingWrite request) {
+		try {
+			this.channel.close();
+			this.channel = FileChannel.open(segmentPath(this.segment + 1), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			this.segment++;
+			request.done.complete(null);
+		} catch (IOException e) {
+			logger.error("Errore apertura nuovo segmento del journal! " + e);
+			request.done.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Scrive le modifiche in coda e chiude il journal. Le modifiche successive non vengono registrate e devono
+	 * essere salvate con uno snapshot
+	 */
+	public void close() {
+		if (!this.open) {
+			return;
+		}
+		this.open = false;
+		this.queue.add(CLOSE);
+		try {
+			this.writer.join();
+			// Un segmento vuoto non serve al prossimo avvio
+			boolean empty = this.channel.isOpen() && this.channel.size() == 0;
+			this.channel.close();
+			if (empty) {
+				Files.deleteIfExists(segmentPath(this.segment));
+			}
+		} catch (InterruptedException | IOException e) {
+			logger.error("Errore chiusura journal! " + e);
+		}
+		// Modifiche messe in coda durante la chiusura: non vengono scritte, sblocco chi le attende
+		PendingWrite write;
+		while ((write = this.queue.poll()) != null) {
+			write.done.complete(null);
+		}
+	}
+
+	/**
+	 * Riapplica le modifiche del journal. Una riga incompleta o non valida interrompe il replay: e' l'ultima
+	 * scrittura prima di un crash
+	 * @param path segmento del journal
+	 */
+	private void replay(Path path) throws IOException {
+		long startNanos = System.nanoTime();
+		byte[] data = Files.readAllBytes(path);
+		int applied = 0, skipped = 0;
+		int lineStart = 0;
+
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] != '\n') {
+				continue;
+			}
+			String line = new String(data, lineStart, i - lineStart, StandardCharsets.UTF_8);
+			try {
+				JournalEntry entry = JsonService.fromJson(line, JournalEntry.class);
+				if (entry == null || entry.type == null) {
+					throw new JsonSyntaxException("tipo modifica mancante");
+				}
+				if (this.apply(entry)) {
+					applied++;
+				} else {
+					skipped++;
+				}
+			} catch (JsonSyntaxException e) {
+				logger.warn("Riga " + (applied + skipped + 1) + " di " + path + " non valida, replay del segmento interrotto " + e.getMessage());
+				break;
+			}
+			lineStart = i + 1;
+		}
+
+		if (lineStart < data.length) {
+			logger.warn("Scartati " + (data.length - lineStart) + " byte finali di " + path + " non validi");
+		}
+		logger.info("Segmento " + path + " riapplicato in " + (System.nanoTime() - startNanos) / 1000000 + " ms: " +
+				applied + " modifiche applicate, " + skipped + " gia' presenti nello snapshot");
+	}
+
+	/**
+	 * Applica una modifica del journal se non e' gia' presente nello snapshot
+	 * @param entry
+	 * @return false se la modifica e' stata ignorata
+	 */
+	boolean apply(JournalEntry entry) {
+		UserService userService = UserService.getInstance();
+
+		if (entry.type == JournalEntry.Type.WORD) {
+			WordleGameState state = WordleGameService.getInstance().getState();
+			if (entry.gameNumber <= state.gameNumber) {
+				return false;
+			}
+			state.word = entry.word;
+			state.translation = entry.translation;
+			state.extractedAt = entry.extractedAt;
+			state.gameNumber = entry.gameNumber;
+			return true;
+		}
+
+		if (entry.type == JournalEntry.Type.REGISTER) {
+			if (entry.user == null) {
+				return false;
+			}
+			entry.user.rebuildStatsIfMissing();
+			try {
+				userService.addUser(entry.user);
+				return true;
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+		}
+
+		User user = userService.getUser(entry.username);
+		if (user == null) {
+			return false;
+		}
+		WordleGame lastGame = user.getLastGame();
+		boolean sameGame = lastGame != null && lastGame.gameNumber == entry.gameNumber;
+
+		switch (entry.type) {
+			case NEW_GAME:
+				// I numeri delle partite crescono: una partita non successiva all'ultima e' gia' nello snapshot
+				if (lastGame != null && lastGame.gameNumber >= entry.gameNumber) {
+					return false;
+				}
+				user.newGame(entry.word, entry.gameNumber);
+				break;
+			case GUESS:
+				if (!sameGame || lastGame.finished || lastGame.getAttempts() != entry.attempt) {
+					return false;
+				}
+				user.addGuessLastGame(entry.word);
+				break;
+			case END_GAME:
+				if (!sameGame || lastGame.finished) {
+					return false;
+				}
+				user.endLastGame();
+				return true;
+			case REMOVE_GAME:
+				if (!sameGame || lastGame.finished) {
+					return false;
+				}
+				user.removeLastGame();
+				break;
+			default:
+				return false;
+		}
+		userService.updateRank(user);
+		return true;
+	}
+
+	/**
+	 * Ritorna il numero di modifiche messe in coda dall'avvio
+	 * @return
+	 */
+	public long getEnqueuedEntries() {
+		return this.enqueuedEntries.get();
+	}
+
+	/**
+	 * Ritorna una descrizione dei contatori del journal
+	 * @return
+	 */
+	public String getStats() {
+		long syncs = this.syncCount.get();
+		String stats = "journal: modifiche scritte " + this.writtenEntries.get() + ", fsync " + syncs + ", in coda " + this.queue.size();
+		if (syncs > 0) {
+			stats += ", modifiche per fsync " + String.format("%.1f", (double) this.writtenEntries.get() / syncs) +
+					", fsync medio " + String.format("%.2f", this.totalSyncNanos.get() / syncs / 1000000.0) + " ms";
+		}
+		return stats;
+	}
+}
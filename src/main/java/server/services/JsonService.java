@@ -2,14 +2,26 @@ package server.services;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import common.dto.HintRow;
+import common.utils.JsonBufferWriter;
 import common.utils.WordleLogger;
 
 import java.io.*;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 /**
  * Helper generico che consente di scrivere/leggere file json da disco e fare il casting
@@ -22,12 +34,54 @@ public class JsonService {
 			.serializeSpecialFloatingPointValues()
 			.create();
 
+	// Senza pretty printing: una riga per oggetto (journal)
+	private final static Gson compactGson = new GsonBuilder()
+			.setDateFormat("MMM dd, yyyy, HH:mm:ss")
+			.serializeSpecialFloatingPointValues()
+			.create();
+
 	private final static WordleLogger logger = new WordleLogger(JsonService.class.getName());
 
 	public static String toJson(Object src) {
 		return gson.toJson(src);
 	}
 
+	/**
+	 * Serializza l'oggetto in json su una sola riga
+	 * @param src
+	 * @return
+	 */
+	public static String toJsonLine(Object src) {
+		return compactGson.toJson(src);
+	}
+
+	/**
+	 * Scrive in json compatto una partita condivisa (formato di SharedGame), copiando le righe dei suggerimenti gia'
+	 * codificate invece di serializzarle con Gson
+	 * @param username
+	 * @param gameNumber
+	 * @param hints
+	 * @return json codificato in UTF-8
+	 */
+	public static byte[] toSharedGameJson(String username, int gameNumber, HintRow[] hints) {
+		int size = 64 + username.length() * 6;
+		for (HintRow row: hints) {
+			size += row.getJsonLength() + 1;
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		JsonBufferWriter.putRaw(out, "{\"username\":");
+		JsonBufferWriter.putString(out, username);
+		JsonBufferWriter.putRaw(out, ",\"gameNumber\":");
+		JsonBufferWriter.putInt(out, gameNumber);
+		JsonBufferWriter.putRaw(out, ",\"hints\":[");
+		for (int i = 0; i < hints.length; i++) {
+			if (i > 0) out.put((byte) ',');
+			hints[i].putJson(out);
+		}
+		JsonBufferWriter.putRaw(out, "]}");
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
 	public static <T> T fromJson(String json, Class<T> type) throws JsonSyntaxException{
 		return gson.fromJson(json, type);
 	}
@@ -41,13 +95,116 @@ public class JsonService {
 			throw new FileNotFoundException("File " + path + " not found!");
 		}
 
-		BufferedReader br = Files.newBufferedReader(jsonPath);
-		parsedObj = gson.fromJson(br, type);
+		try (BufferedReader br = Files.newBufferedReader(jsonPath)) {
+			parsedObj = gson.fromJson(br, type);
+		} catch (JsonIOException e) {
+			throw new IOException(e);
+		}
+		if (parsedObj == null) {
+			throw new JsonSyntaxException("File " + path + " vuoto");
+		}
 
 		logger.info("File " + path + " letto correttamente!");
 		return parsedObj;
 	}
 
+	/**
+	 * Legge uno snapshot scritto con writeJson. Se il file non esiste o non e' valido prova con le generazioni
+	 * precedenti (path.1, path.2, ...)
+	 * @param path
+	 * @param type
+	 * @return
+	 * @throws IOException se nessuna generazione e' leggibile
+	 * @throws JsonSyntaxException
+	 */
+	public static Object readSnapshot(String path, Type type) throws IOException, JsonSyntaxException {
+		return readGenerations(path, snapshotPath -> readJson(snapshotPath, type));
+	}
+
+	/**
+	 * Legge uno snapshot che contiene un array json un elemento alla volta, senza caricare in memoria il file o la
+	 * lista completa. Se il file non e' valido prova con le generazioni precedenti, chiamando reset prima di ogni
+	 * nuovo tentativo per scartare gli elementi gia' letti
+	 * @param path
+	 * @param type tipo degli elementi dell'array
+	 * @param consumer chiamato per ogni elemento, nell'ordine del file
+	 * @param reset
+	 * @param <T>
+	 * @return numero di elementi letti
+	 * @throws IOException se nessuna generazione e' leggibile
+	 * @throws JsonSyntaxException
+	 */
+	public static <T> int readSnapshotArray(String path, Class<T> type, Consumer<T> consumer, Runnable reset) throws IOException, JsonSyntaxException {
+		boolean[] retry = {false};
+		return readGenerations(path, snapshotPath -> {
+			if (retry[0]) {
+				reset.run();
+			}
+			retry[0] = true;
+			return readJsonArray(snapshotPath, type, consumer);
+		});
+	}
+
+	private static <T> int readJsonArray(String path, Class<T> type, Consumer<T> consumer) throws IOException, JsonSyntaxException {
+
+		Path jsonPath = Paths.get(path);
+		if (!Files.exists(jsonPath)) {
+			throw new FileNotFoundException("File " + path + " not found!");
+		}
+
+		int count = 0;
+		try (JsonReader reader = new JsonReader(Files.newBufferedReader(jsonPath))) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				consumer.accept(gson.fromJson(reader, type));
+				count++;
+			}
+			reader.endArray();
+		} catch (JsonIOException e) {
+			throw new IOException(e);
+		} catch (IllegalStateException e) {
+			// Il file non contiene un array
+			throw new JsonSyntaxException(e);
+		}
+
+		logger.info("File " + path + " letto correttamente!");
+		return count;
+	}
+
+	/**
+	 * Lettura di un file di snapshot
+	 * @param <R>
+	 */
+	private interface SnapshotReader<R> {
+		R read(String path) throws IOException, JsonSyntaxException;
+	}
+
+	/**
+	 * Legge lo snapshot provando le generazioni precedenti finche' ne esistono
+	 * @param path
+	 * @param reader
+	 * @param <R>
+	 * @return
+	 * @throws IOException se nessuna generazione e' leggibile
+	 * @throws JsonSyntaxException
+	 */
+	private static <R> R readGenerations(String path, SnapshotReader<R> reader) throws IOException, JsonSyntaxException {
+
+		String snapshotPath = path;
+		for (int generation = 1; ; generation++) {
+			try {
+				return reader.read(snapshotPath);
+			} catch (IOException | JsonSyntaxException e) {
+				String previousPath = path + "." + generation;
+				if (!Files.exists(Paths.get(previousPath))) {
+					throw e;
+				}
+				logger.warn("Impossibile leggere " + snapshotPath + " (" + e.getMessage() + "), provo con " + previousPath);
+				snapshotPath = previousPath;
+			}
+		}
+	}
+
 	/**
 	 * Write object params to json
 	 * @param path
@@ -56,21 +213,73 @@ public class JsonService {
 	 * @throws IOException
 	 */
 	public static <T> void writeJson(String path, T object) throws IOException {
+		writeJson(path, object, 0);
+	}
 
-		Path jsonPath = Paths.get(path);
+	/**
+	 * Scrive l'oggetto in json in modo atomico: il json viene scritto in un file temporaneo, reso persistente con
+	 * fsync e poi rinominato sul file finale. Un crash durante la scrittura lascia intatto il file precedente.
+	 * Le versioni precedenti del file vengono mantenute come path.1 (la piu' recente), path.2, ...
+	 * @param path
+	 * @param object
+	 * @param generations numero di versioni precedenti da mantenere
+	 * @param <T>
+	 * @return dimensione del file scritto (bytes)
+	 * @throws IOException
+	 */
+	public static <T> long writeJson(String path, T object, int generations) throws IOException {
 
-		// Se il file non esiste lo devo creare prima (incluse tutte le directory per arrivare al file)
-		if (!Files.exists(jsonPath)) {
+		Path jsonPath = Paths.get(path);
+		Path tempPath = Paths.get(path + ".tmp");
+		// Creo tutte le directory per arrivare al file
+		if (jsonPath.getParent() != null) {
 			Files.createDirectories(jsonPath.getParent());
-			Files.createFile(jsonPath);
 		}
 
-		BufferedWriter bw =  Files.newBufferedWriter(jsonPath);
-		String json = gson.toJson(object);
-		bw.write(json);
-		bw.close();
+		// Il json viene scritto direttamente sul file, senza costruire la stringa in memoria
+		long wroteBytes;
+		try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+			gson.toJson(object, writer);
+			writer.flush();
+			channel.force(true);
+			wroteBytes = channel.size();
+		} catch (JsonIOException e) {
+			throw new IOException(e);
+		}
+
+		// Sposto le generazioni precedenti: path.(n-1) -> path.n, ..., path.1 -> path.2. Il file attuale resta al suo
+		// posto e diventa anche path.1, cosi' path esiste sempre e viene sostituito con una sola rinomina atomica
+		if (generations > 0 && Files.exists(jsonPath)) {
+			for (int generation = generations - 1; generation >= 1; generation--) {
+				Path previous = Paths.get(path + "." + generation);
+				if (Files.exists(previous)) {
+					Files.move(previous, Paths.get(path + "." + (generation + 1)), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			Path firstGeneration = Paths.get(path + ".1");
+			Files.deleteIfExists(firstGeneration);
+			try {
+				Files.createLink(firstGeneration, jsonPath);
+			} catch (IOException | UnsupportedOperationException e) {
+				// File system senza hard link: copio il file
+				Files.copy(jsonPath, firstGeneration, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		Files.move(tempPath, jsonPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory(jsonPath.toAbsolutePath().getParent());
 
-		int wroteBytes = json.getBytes().length;
 		logger.info("Salvataggio di " + path + " completato! (" + wroteBytes + " bytes)");
+		return wroteBytes;
+	}
+
+	/**
+	 * Rende persistenti le rinomine dei file nella directory. Non supportato su tutti i sistemi operativi
+	 * @param directory
+	 */
+	private static void syncDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException ignore) {}
 	}
 }
@@ -2,32 +2,42 @@ package server.services;
 
 import com.google.gson.JsonSyntaxException;
 import common.dto.UserScore;
+import common.entity.WordleGame;
 import common.utils.WordleLogger;
+import server.entity.ClientSession;
+import server.entity.JournalEntry;
+import server.entity.Leaderboard;
+import server.entity.ServerConfig;
 import server.entity.User;
+import server.exceptions.WordleException;
 import common.enums.ResponseCodeEnum;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.*;
-import java.lang.reflect.Type;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class UserService {
 	private static WordleLogger logger = new WordleLogger(UserService.class.getName());
 	private static UserService instance = null;
 	private static final String USERS_DATA_PATH = "data/users.json";
-	private List<User> users = new ArrayList<>();
-	private List<UserScore> rank;
+	private static final int LOAD_BATCH_SIZE = 1024; // Utenti per blocco durante il caricamento
+	// Indice degli utenti per username, le letture non richiedono lock
+	private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+	// Classifica di gioco, aggiornata solo per l'utente il cui punteggio cambia. Protetta dal proprio lock
+	private final Leaderboard leaderboard = new Leaderboard();
+	private final JournalService journalService = JournalService.getInstance();
 
 	private UserService() {
 		logger.info("Avvio servizio utenti...");
 		this.loadUsers();
-		this.updateRank();
+		this.buildRank();
 	}
 
 	/**
@@ -42,25 +52,143 @@ public class UserService {
 	}
 
 	/**
-	 * Carica gli utenti dal file user.json se esiste. Se non esiste lo crea
+	 * Carica gli utenti dal file user.json se esiste. Se non esiste lo crea.
+	 * Il file viene letto un utente alla volta: l'indice per username viene costruito durante la lettura, mentre il
+	 * ricalcolo delle statistiche dei file legacy viene fatto in parallelo su blocchi di utenti
 	 */
 	private void loadUsers() {
-		Type ListOfUserType = new TypeToken<List<User>>(){}.getType();
+		long startNanos = System.nanoTime();
+		List<CompletableFuture<Integer>> indexing = new ArrayList<>();
+		List<User> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+		// Generazione della lettura: cambia quando gli utenti letti finora vengono scartati
+		AtomicInteger generation = new AtomicInteger();
+
 		try {
-			this.users = (List<User>) JsonService.readJson(USERS_DATA_PATH, ListOfUserType);
-			logger.info("Caricato/i correttamente " + this.users.size() + " utente/i da file json");
+			JsonService.readSnapshotArray(USERS_DATA_PATH, User.class, user -> {
+				// Indicizzo per username durante la lettura: in caso di duplicati vale il primo utente del file
+				if (this.users.putIfAbsent(user.getUsername(), user) != null) {
+					logger.warn("Utente " + user.getUsername() + " duplicato nel file json, ignorato");
+					return;
+				}
+				batch.add(user);
+				if (batch.size() == LOAD_BATCH_SIZE) {
+					indexing.add(rebuildStatsAsync(new ArrayList<>(batch), generation));
+					batch.clear();
+				}
+			}, () -> {
+				// Lettura di una generazione precedente, scarto gli utenti letti finora. I blocchi in corso smettono di
+				// archiviare e vengono attesi prima di ripartire
+				discardBatches(generation, indexing);
+				this.users.clear();
+				batch.clear();
+			});
+			indexing.add(rebuildStatsAsync(batch, generation));
 		} catch (IOException | JsonSyntaxException e) {
 			logger.warn("Impossibile leggere file user.json, resetto UserService" + e);
-			this.users = new ArrayList<>();
+			discardBatches(generation, indexing);
+			this.users.clear();
+		}
+
+		int rebuiltStats = 0;
+		for (CompletableFuture<Integer> future: indexing) {
+			rebuiltStats += future.join();
+		}
+		logger.info("Caricato/i correttamente " + this.users.size() + " utente/i da file json in " +
+				(System.nanoTime() - startNanos) / 1000000 + " ms");
+		if (rebuiltStats > 0) {
+			logger.info("Ricalcolate le statistiche di " + rebuiltStats + " utente/i salvati nel vecchio formato");
 		}
 	}
 
-	public void saveUsers() {
+	/**
+	 * Ricalcola in background le statistiche degli utenti salvati nel vecchio formato. Si interrompe se la generazione
+	 * della lettura cambia: gli utenti rimasti sono stati scartati e non vanno archiviati
+	 * @param users
+	 * @param generation
+	 * @return numero di utenti di cui sono state ricalcolate le statistiche
+	 */
+	private static CompletableFuture<Integer> rebuildStatsAsync(List<User> users, AtomicInteger generation) {
+		int startGeneration = generation.get();
+		return CompletableFuture.supplyAsync(() -> {
+			int rebuilt = 0;
+			for (User user: users) {
+				if (generation.get() != startGeneration) {
+					break;
+				}
+				rebuilt += user.rebuildStatsIfMissing() ? 1 : 0;
+				// All'avvio in memoria resta solo l'ultima partita, le precedenti vanno nell'archivio
+				GameArchive.getInstance().archive(user);
+			}
+			return rebuilt;
+		});
+	}
+
+	/**
+	 * Scarta i blocchi di utenti gia' avviati: cambia la generazione e attende i blocchi in corso, cosi' nessuno archivia
+	 * utenti scartati dopo il ritorno
+	 * @param generation
+	 * @param indexing
+	 */
+	private static void discardBatches(AtomicInteger generation, List<CompletableFuture<Integer>> indexing) {
+		generation.incrementAndGet();
+		for (CompletableFuture<Integer> future: indexing) {
+			future.join();
+		}
+		indexing.clear();
+	}
+
+	/**
+	 * Salva lo snapshot degli utenti su file. Ogni utente viene copiato tenendo solo il proprio lock, le richieste
+	 * degli altri utenti proseguono durante la copia e la scrittura
+	 * @return dimensione del file scritto (bytes)
+	 * @throws IOException
+	 */
+	public long saveUsers() throws IOException {
 
+		GameArchive archive = GameArchive.getInstance();
+		// Le copie fanno riferimento ai blocchi dell'archivio: finche' non sono state scritte il loro spazio non va
+		// riutilizzato
+		archive.beginRead();
 		try {
-			JsonService.writeJson(USERS_DATA_PATH, this.users);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+			List<User> copies = new ArrayList<>(this.users.size());
+			for (User user: this.users.values()) {
+				copies.add(user.snapshot());
+			}
+			// Mantengo il formato del file: lista di utenti con tutte le partite. Le partite archiviate vengono rilette
+			// durante la scrittura, un utente alla volta
+			return JsonService.writeJson(USERS_DATA_PATH, new FullHistoryList(copies, archive),
+					ServerConfig.SNAPSHOT_GENERATIONS);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			archive.endRead();
+		}
+	}
+
+	/**
+	 * Vista sulle copie degli utenti che rilegge dall'archivio le partite di ogni utente solo quando viene letto
+	 */
+	private static class FullHistoryList extends AbstractList<User> {
+		private final List<User> copies;
+		private final GameArchive archive;
+
+		private FullHistoryList(List<User> copies, GameArchive archive) {
+			this.copies = copies;
+			this.archive = archive;
+		}
+
+		@Override
+		public User get(int index) {
+			try {
+				return this.copies.get(index).withArchivedGames(this.archive);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public int size() {
+			return this.copies.size();
 		}
 	}
 
@@ -69,17 +197,18 @@ public class UserService {
 	 * @param user
 	 * @throws IllegalArgumentException
 	 */
-	public synchronized void addUser(User user) throws IllegalArgumentException {
+	public void addUser(User user) throws IllegalArgumentException {
 
-		// Controlla se esiste gia' un utente con lo stesso username
-		for(User u:this.users) {
-			if (u.getUsername().equals(user.getUsername())) {
-				throw new IllegalArgumentException(ResponseCodeEnum.USERNAME_ALREADY_USED.name());
-			}
+		// Aggiungo l'utente solo se non esiste gia' un utente con lo stesso username (operazione atomica)
+		if (this.users.putIfAbsent(user.getUsername(), user) != null) {
+			throw new IllegalArgumentException(ResponseCodeEnum.USERNAME_ALREADY_USED.name());
 		}
-
-		// Se sono arrivato qui l'utente non esiste, posso aggiungerlo
-		this.users.add(user);
+		// Come per le altre modifiche la registrazione va nel journal dopo essere stata applicata: se lo snapshot
+		// elimina il segmento che la contiene, il segmento e' stato chiuso dopo l'inserimento e la copia degli
+		// utenti, fatta dopo la chiusura, contiene gia' il nuovo utente
+		CompletableFuture<Void> journaled = this.journalService.enqueue(JournalEntry.register(user));
+		this.updateRank(user);
+		this.journalService.await(journaled);
 		logger.success("Nuovo utente aggiunto! "+user.getUsername());
 	}
 
@@ -88,39 +217,54 @@ public class UserService {
 	 * @param username
 	 * @return
 	 */
-	public synchronized User getUser(String username) {
-		for(User user: this.users) {
-			if (user.getUsername().equals(username)) {
-				return user;
-			}
+	public User getUser(String username) {
+		if (username == null) {
+			return null;
 		}
-		return null;
+		return this.users.get(username);
 	}
 
 	/**
-	 * Effettua il login di un utente
+	 * Effettua il login di un utente. La verifica della password (PBKDF2) viene fatta senza lock condivisi, solo il
+	 * passaggio a online dell'utente e' atomico. Se il work factor dell'utente e' diverso da quello configurato
+	 * l'hash della password viene ricalcolato
 	 * @param username
 	 * @param password
-	 * @return
+	 * @param session connessione su cui viene effettuato il login
+	 * @return l'utente, associato alla connessione
+	 * @throws WordleException INVALID_USERNAME_PASSWORD o ALREADY_LOGGED_IN
 	 */
-	public synchronized boolean login(String username, String password, int clientHashCode) {
+	public User login(String username, String password, ClientSession session) throws WordleException {
 
 		User user = getUser(username);
-		if (user == null) {
-			return false;
+		if (user == null || password == null) {
+			throw new WordleException(ResponseCodeEnum.INVALID_USERNAME_PASSWORD);
 		}
 
 		try {
-			boolean verified =  user.verifyPassword(password);
-			if (verified) {
-				user.online = true;
-				user.clientHashCode = clientHashCode;
+			if (!user.verifyPassword(password)) {
+				throw new WordleException(ResponseCodeEnum.INVALID_USERNAME_PASSWORD);
+			}
+			if (user.getPasswordIterations() != ServerConfig.PASSWORD_ITERATIONS) {
+				user.rehashPassword(password, ServerConfig.PASSWORD_ITERATIONS);
+				logger.debug("Aggiornato work factor della password dell'utente " + username);
 			}
-			return verified;
 		} catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
 			logger.error("Errore verifica password: "+e.getMessage());
-			return false;
+			throw new WordleException(ResponseCodeEnum.INVALID_USERNAME_PASSWORD);
+		}
+
+		// Un altro client potrebbe aver effettuato il login con lo stesso utente durante la verifica della password
+		if (!user.setOnline(session)) {
+			throw new WordleException(ResponseCodeEnum.ALREADY_LOGGED_IN);
+		}
+		// Sulla connessione era gia' stato fatto il login con un altro utente, che viene disconnesso
+		User previous = session.getUser();
+		if (previous != null && previous != user) {
+			previous.setOffline(session);
 		}
+		session.setUser(user);
+		return user;
 	}
 
 	/**
@@ -128,54 +272,103 @@ public class UserService {
 	 * @param user
 	 * @return
 	 */
-	public synchronized boolean logout(User user) {
+	public boolean logout(User user) {
 		if (user != null) {
-			user.online = false;
-			user.endLastGame();
+			// L'utente potrebbe essere online su un'altra connessione, la scollego dall'utente
+			ClientSession session = user.session;
+			if (user.setOffline(null)) {
+				if (session != null) {
+					session.setUser(null);
+				}
+				this.journalEndGame(user);
+			}
 		}
 		// La disiscrizione dell utente dalle notifiche di rank viene fatta client side con RMI callback
 		return user != null;
 	}
 
 	/**
-	 * Effettua il logout di un utente utilizzando il client hash code. Utile quando casca la connessione con il client
-	 * @param clientHashCode
+	 * Effettua il logout dell'utente associato alla connessione. Utile quando casca la connessione con il client:
+	 * l'utente e' salvato nella sessione, non serve cercarlo
+	 * @param session
+	 */
+	public void logout(ClientSession session) {
+		User user = session.getUser();
+		session.setUser(null);
+		// Il logout avviene solo se l'utente e' ancora online su questa connessione
+		if (user != null && user.setOffline(session)) {
+			this.journalEndGame(user);
+			logger.warn("Logout forzato utente " + user.getUsername() + " effettuato con successo");
+		}
+	}
+
+	/**
+	 * Registra nel journal la fine dell'ultima partita dell'utente dopo il logout. Non attende la scrittura: il
+	 * logout forzato avviene sul thread del reactor
+	 * @param user
+	 */
+	private void journalEndGame(User user) {
+		WordleGame lastGame = user.getLastGame();
+		if (lastGame != null) {
+			this.journalService.enqueue(JournalEntry.endGame(user.getUsername(), lastGame.gameNumber));
+		}
+	}
+
+	/**
+	 * Costruisce la classifica di gioco con gli utenti caricati da file
 	 */
-	public synchronized void logout(int clientHashCode) {
-		for (User user: this.users) {
-			if(clientHashCode == user.clientHashCode && user.online) {
-				user.online = false;
-				user.endLastGame();
-				logger.warn("Logout forzato utente " + user.getUsername() + " effettuato con successo");
+	private void buildRank() {
+		long startNanos = System.nanoTime();
+		synchronized (this.leaderboard) {
+			for (User user: this.users.values()) {
+				this.leaderboard.update(user.getUsername(), user.getScore());
 			}
 		}
+		logger.info("Classifica costruita in " + (System.nanoTime() - startNanos) / 1000000 + " ms");
 	}
 
 	/**
-	 * Aggiorna la classifica di gioco
-	 * @return
+	 * Aggiorna la posizione in classifica dell'utente dopo un cambiamento del suo punteggio, O(log n)
+	 * @param user
+	 * @return lo spostamento dell'utente in classifica, null se il punteggio non e' cambiato
 	 */
-	public synchronized void updateRank() {
+	public Leaderboard.Move updateRank(User user) {
+		// Il punteggio va letto dentro il lock: con due aggiornamenti concorrenti dello stesso utente l'ultimo ad
+		// aggiornare la classifica deve usare il punteggio piu' recente
+		synchronized (this.leaderboard) {
+			return this.leaderboard.update(user.getUsername(), user.getScore());
+		}
+	}
 
-		List<UserScore> rank = new ArrayList<>();
-		for(User user: this.users) {
-			rank.add(new UserScore(user.getUsername(), user.getScore()));
+	/**
+	 * Ritorna la posizione in classifica dell'utente (0 per il primo), -1 se l'utente non esiste
+	 * @param username
+	 * @return
+	 */
+	public int getRankPosition(String username) {
+		synchronized (this.leaderboard) {
+			return this.leaderboard.positionOf(username);
 		}
+	}
 
-		rank.sort(new Comparator<UserScore>() {
-			@Override
-			public int compare(UserScore o1, UserScore o2) {
-				return o2.score - o1.score;
-			}
-		});
-		this.rank = rank;
+	/**
+	 * Ritorna i primi k utenti della classifica
+	 * @param k
+	 * @return
+	 */
+	public List<UserScore> getTopRank(int k) {
+		synchronized (this.leaderboard) {
+			return this.leaderboard.top(k);
+		}
 	}
 
 	/**
-	 * Ritorna una copia della lista che contiene la classifica degli utenti
+	 * Ritorna una copia della classifica completa degli utenti
 	 * @return
 	 */
 	public List<UserScore> getRank() {
-		return new ArrayList<>(this.rank);
+		synchronized (this.leaderboard) {
+			return this.leaderboard.range(0, this.leaderboard.size());
+		}
 	}
 }
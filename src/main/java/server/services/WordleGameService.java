@@ -1,12 +1,16 @@
 package server.services;
 
 import com.google.gson.JsonSyntaxException;
+import common.dto.HintRow;
 import common.dto.LetterDTO;
 import common.dto.MyMemoryResponse;
-import common.dto.UserScore;
+import common.entity.WordleGame;
 import common.enums.AnsiColor;
+import common.utils.PackedWord;
 import common.utils.WordleLogger;
+import server.entity.Leaderboard;
 import server.entity.ServerConfig;
+import server.entity.WordProfile;
 import server.entity.WordleGameState;
 
 import java.io.BufferedReader;
@@ -19,6 +23,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -30,8 +35,11 @@ public class WordleGameService {
 	private static final String DICTIONARY_PATH = "src/main/java/dictionary/words.txt";
 	private static WordleGameService instance = null;
 	public static final int WORD_LENGHT = 10;
+	private static final int RANK_NOTIFY_POSITIONS = 3; // Posizioni della classifica i cui cambiamenti vengono notificati
 	private WordleGameState state; // Contiene lo stato attuale del gioco
-	private final ArrayList<String> dictionary = new ArrayList<>(); //Dizionario delle parole, non deve essere salvato sul json
+	// Dizionario delle parole codificate con PackedWord e ordinate, non deve essere salvato sul json
+	private final long[] dictionary;
+	private volatile WordProfile profile; // Profilo della parola attuale, ricalcolato dopo ogni estrazione
 
 
 	public synchronized static WordleGameService getInstance() {
@@ -44,28 +52,52 @@ public class WordleGameService {
 	private WordleGameService() {
 
 		logger.info("Avvio servizio wordle game...");
+		long startNanos = System.nanoTime();
 		// Carico il dizionario delle parole in memoria
 		Path dictionaryPath = Paths.get(DICTIONARY_PATH);
+		long[] words = new long[1024];
+		int wordsCount = 0;
 		try (
 				BufferedReader br = new BufferedReader(Files.newBufferedReader(dictionaryPath));
 		) {
 			String line = br.readLine();
+			int skippedWords = 0;
 			while (line != null) {
-				this.dictionary.add(line);
+				// Parole e tentativi delle partite vengono salvati codificati, scarto le parole non codificabili
+				if (PackedWord.isPackable(line)) {
+					if (wordsCount == words.length) {
+						words = Arrays.copyOf(words, wordsCount * 2);
+					}
+					words[wordsCount++] = PackedWord.pack(line);
+				} else {
+					skippedWords++;
+				}
 				line = br.readLine();
 			}
+			if (skippedWords > 0) {
+				logger.warn("Ignorate " + skippedWords + " parole del dizionario con caratteri diversi da a-z");
+			}
 		} catch (IOException e) {
 			logger.error("Impossibile leggere dizionario parole. " + e.getMessage());
 			throw new RuntimeException(e);
 		}
 
-		logger.info("Caricato dizionario di " + this.dictionary.size() + " parole");
+		// Ordino le parole per la ricerca binaria ed elimino i duplicati
+		Arrays.sort(words, 0, wordsCount);
+		int uniqueCount = 0;
+		for (int i = 0; i < wordsCount; i++) {
+			if (uniqueCount == 0 || words[i] != words[uniqueCount - 1]) {
+				words[uniqueCount++] = words[i];
+			}
+		}
+		this.dictionary = Arrays.copyOf(words, uniqueCount);
+		logger.info("Caricato dizionario di " + this.dictionary.length + " parole in " + (System.nanoTime() - startNanos) / 1000000 + " ms");
 
 		/*  Carico file wordle.json che contiene le configurazioni dell ultimo gioco
 			Permette di mantenere lo stato del server in caso di riavvio o crash
 		 */
 		try {
-			this.state = (WordleGameState) JsonService.readJson(WORDLE_STATE_PATH, WordleGameState.class);
+			this.state = (WordleGameState) JsonService.readSnapshot(WORDLE_STATE_PATH, WordleGameState.class);
 		}catch (IOException | JsonSyntaxException e) {
 			logger.warn("Impossibile leggere file wordle.json, resetto WordleGameService " + e);
 			//String word = this.extractRandomWord();
@@ -76,13 +108,21 @@ public class WordleGameService {
 
 	}
 
-	public void saveState() {
+	/**
+	 * Salva lo snapshot dello stato del gioco su file
+	 * @return dimensione del file scritto (bytes)
+	 * @throws IOException
+	 */
+	public long saveState() throws IOException {
 
+		WordleGameState snapshot;
 		try {
-			JsonService.writeJson(WORDLE_STATE_PATH, this.state);
-		} catch (IOException e) {
-			logger.error("Errore! Impossibile salvare il corrente stato del gioco!");
+			wordLock.lock();
+			snapshot = new WordleGameState(this.state);
+		} finally {
+			wordLock.unlock();
 		}
+		return JsonService.writeJson(WORDLE_STATE_PATH, snapshot, ServerConfig.SNAPSHOT_GENERATIONS);
 	}
 
 	/**
@@ -90,7 +130,7 @@ public class WordleGameService {
 	 * @return
 	 */
 	public String extractRandomWord() {
-		return this.dictionary.get(new Random().nextInt(this.dictionary.size()));
+		return PackedWord.unpack(this.dictionary[ThreadLocalRandom.current().nextInt(this.dictionary.length)]);
 	}
 
 	public int getGameNumber() {
@@ -98,26 +138,27 @@ public class WordleGameService {
 	}
 
 	/**
-	 * Ritorna i suggerimenti per la parola passata rispetto a right word sotto forma di array di oggetti
-	 * @param word
+	 * Ritorna i suggerimenti per la parola passata rispetto alla parola del profilo sotto forma di array di oggetti
+	 * @param word parola codificata con PackedWord
+	 * @param rightWord profilo della parola da indovinare
 	 * @return
 	 */
-	public LetterDTO[] hintWord(String word, String rightWord) {
-
-		LetterDTO[] result = new LetterDTO[word.length()];
-
-		for (int i = 0; i < word.length(); i++) {
-			char guessedLetter = word.toCharArray()[i];
-			char correctLetter = rightWord.toCharArray()[i];
-
-			result[i] = new LetterDTO();
-			result[i].letter = word.toCharArray()[i];
-			if (guessedLetter == correctLetter) {
-				result[i].guessStatus = '+';
-			} else if (this.state.word.contains(String.valueOf(guessedLetter))) {
-				result[i].guessStatus = '?';
-			} else {
-				result[i].guessStatus = 'X';
+	public LetterDTO[] hintWord(long word, WordProfile rightWord) {
+
+		LetterDTO[] result = new LetterDTO[PackedWord.length(word)];
+		long score = rightWord.score(word);
+
+		for (int i = 0; i < result.length; i++) {
+			char letter = PackedWord.charAt(word, i);
+			switch (WordProfile.status(score, i)) {
+				case WordProfile.CORRECT:
+					result[i] = LetterDTO.of(letter, '+');
+					break;
+				case WordProfile.PRESENT:
+					result[i] = LetterDTO.of(letter, '?');
+					break;
+				default:
+					result[i] = LetterDTO.of(letter, 'X');
 			}
 		}
 
@@ -126,52 +167,72 @@ public class WordleGameService {
 	}
 
 	/**
-	 * Costruisce l'array dei suggerimenti a partire dai tentativi dell'utente
-	 * @param userGuess
+	 * Costruisce l'array dei suggerimenti a partire dai tentativi della partita. Le righe gia' calcolate (e codificate)
+	 * vengono riprese dalla partita, si calcolano solo quelle dei nuovi tentativi. L'array ritornato e' condiviso e non
+	 * deve essere modificato
+	 * @param game
 	 * @return
 	 */
-	public LetterDTO[][] buildUserHint(List<String> userGuess, String rightWord) {
-		LetterDTO[][] hints = new LetterDTO[userGuess.size()][];
-		for(int i = 0; i < userGuess.size(); i++) {
-			hints[i] = this.hintWord(userGuess.get(i), rightWord);
+	public HintRow[] buildUserHint(WordleGame game) {
+		HintRow[] hints = game.getHintRows();
+		int attempts = game.getAttempts();
+		if (hints.length < attempts) {
+			WordProfile rightWord = this.getProfile(game.getPackedWord());
+			int cachedRows = hints.length;
+			hints = Arrays.copyOf(hints, attempts);
+			for(int i = cachedRows; i < attempts; i++) {
+				hints[i] = new HintRow(this.hintWord(game.getPackedGuess(i), rightWord));
+			}
+			game.setHintRows(hints);
 		}
 		return hints;
 	}
 
 	/**
-	 * Questa funzione controlla se la parola specificata e' presente nel dizionario delle parole
+	 * Ritorna il profilo della parola. Il profilo della parola attuale viene calcolato una sola volta dopo ogni
+	 * estrazione e poi riusato da tutti i thread; le parole precedenti (es. condivisione di una partita vecchia)
+	 * vengono calcolate al momento senza sostituirlo
+	 * @param word parola codificata con PackedWord
+	 * @return
+	 */
+	public WordProfile getProfile(long word) {
+		WordProfile profile = this.profile;
+		if (profile != null && profile.getWord() == word) {
+			return profile;
+		}
+		profile = new WordProfile(word);
+		// La lettura senza lock dello stato decide solo se mantenere il profilo, non la sua correttezza
+		if (PackedWord.equals(word, this.state.word)) {
+			this.profile = profile;
+		}
+		return profile;
+	}
+
+	/**
+	 * Questa funzione controlla se la parola specificata e' presente nel dizionario delle parole (ricerca binaria).
+	 * Il dizionario non viene modificato dopo il caricamento, quindi puo' essere letto senza lock
 	 * @param word
 	 * @return
 	 */
 	public boolean isWordInDict(String word) {
-		for (int i = 0; i < this.dictionary.size(); i++) {
-			if (this.dictionary.get(i).equals(word))
-				return true;
-		}
-		return false;
+		return PackedWord.isPackable(word) && Arrays.binarySearch(this.dictionary, PackedWord.pack(word)) >= 0;
 	}
 
 	/**
-	 * Ritorna true se ci sono differenze nelle prime tre posizioni tra la vecchia e la nuova classifica
-	 * @param oldRank
-	 * @param newRank
+	 * Ritorna true se lo spostamento in classifica di un utente ha cambiato le prime tre posizioni: l'utente era o e'
+	 * entrato tra i primi tre con un punteggio diverso
+	 * @param move spostamento dell'utente, null se il suo punteggio non e' cambiato
 	 * @return
 	 */
-	public boolean isRankChanged(List<UserScore> oldRank, List<UserScore> newRank) {
-
-		for(int i = 0; i < 3; i++) {
-			UserScore oldScore = oldRank.size() < (i+1) ? null : oldRank.get(i);
-			UserScore newScore = newRank.size() < (i+1) ? null : newRank.get(i);
-			if (
-				(oldScore != null && newScore == null) ||
-				(oldScore == null && newScore != null) ||
-				(oldScore != null && newScore != null && newScore.score != oldScore.score)
-			) {
-				logger.info("Classifica utenti cambiata nei primi 3 posti! Trasmetto aggiornamento ai client");
-				return true;
-			}
-		}
+	public boolean isRankChanged(Leaderboard.Move move) {
 
+		if (move == null) {
+			return false;
+		}
+		if ((move.oldPosition >= 0 && move.oldPosition < RANK_NOTIFY_POSITIONS) || move.newPosition < RANK_NOTIFY_POSITIONS) {
+			logger.info("Classifica utenti cambiata nei primi 3 posti! Trasmetto aggiornamento ai client");
+			return true;
+		}
 		return false;
 	}
 
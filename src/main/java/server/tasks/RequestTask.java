@@ -1,46 +1,158 @@
 package server.tasks;
 
 import common.dto.*;
-import common.entity.SharedGame;
 import common.entity.WordleGame;
 import common.utils.WordleLogger;
 import server.ServerMain;
+import server.entity.ClientSession;
+import server.entity.JournalEntry;
+import server.entity.Leaderboard;
+import server.entity.RequestLane;
+import server.entity.ServerConfig;
 import server.entity.User;
 import server.entity.WordleGameState;
 import server.exceptions.WordleException;
+import server.services.GameArchive;
+import server.services.JournalService;
 import server.services.JsonService;
 import server.services.UserService;
 import server.services.WordleGameService;
+import server.thread.Reactor;
 
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static common.enums.ResponseCodeEnum.*;
 
 public class RequestTask implements Runnable {
 	private final static WordleLogger logger = new WordleLogger(RequestTask.class.getName());
+	// Admission control: richieste accettate e non ancora completate, richieste rifiutate perche' il server era saturo
+	private static final AtomicInteger pendingTasks = new AtomicInteger();
+	private static final AtomicLong rejectedRequests = new AtomicLong();
+	private static volatile boolean saturated = false; // Indica se dall'ultima ripresa e' stata rifiutata almeno una richiesta
 	private final SelectionKey key;
 	private final TcpRequest request;
 	private final SocketChannel client;
+	private final RequestLane lane; // Corsia dell'executor in cui viene eseguito il task
+	private final long submitNanos = System.nanoTime();
 	private final UserService userService = UserService.getInstance();
 	private final WordleGameService wordleGameService = WordleGameService.getInstance();
+	private final JournalService journalService = JournalService.getInstance();
 
-	public RequestTask(SelectionKey key, TcpRequest request) {
+	public RequestTask(SelectionKey key, TcpRequest request, RequestLane lane) {
 		this.key = key;
 		this.request = request;
 		this.client = (SocketChannel) key.channel();
+		this.lane = lane;
 	}
 
 	/**
-	 * Metodo principale task, eseguito dalla threadpool. Si limita a fare uno switch sul comando ricevuto dall'utente
-	 * e a smistarlo alla corretta funzione. La risposta viene salvata nell'attachment della SelectionKey.
+	 * Mette in coda la richiesta del client nella corsia dell'executor assegnata al suo comando. Se il server e'
+	 * saturo per la priorita' della corsia (troppe richieste accettate e non ancora completate, vedi
+	 * RequestLane.getAdmissionLimit()) oppure la corsia e' piena rispondo subito con SERVER_BUSY e passo alla
+	 * richiesta successiva della stessa connessione
+	 * @param key
+	 * @param request
+	 * @return false se la richiesta e' stata rifiutata, in questo caso il reactor smette di leggere dal client
+	 */
+	public static boolean submit(SelectionKey key, TcpRequest request) {
+
+		ClientSession session = (ClientSession) key.attachment();
+		boolean accepted = true;
+		while (request != null) {
+			// Le corsie con priorita' piu' bassa smettono di accettare richieste prima delle altre
+			RequestLane lane = ServerMain.getLane(request.command);
+			if (pendingTasks.incrementAndGet() <= lane.getAdmissionLimit(ServerConfig.MAX_PENDING_REQUESTS)) {
+				if (lane.submit(new RequestTask(key, request, lane))) {
+					return accepted;
+				}
+				logger.warn("Corsia dell'executor satura, richiesta " + request.command + " rifiutata");
+			}
+			pendingTasks.decrementAndGet();
+			rejectedRequests.incrementAndGet();
+			saturated = true;
+
+			TcpResponse response = new TcpResponse(SERVER_BUSY);
+			response.id = request.id;
+			response.retryAfterMs = ServerConfig.BUSY_RETRY_AFTER_MS;
+			ServerMain.sendTcpMessage(key, response);
+			accepted = false;
+			request = session.nextRequest();
+		}
+		return accepted;
+	}
+
+	/**
+	 * Ritorna true se il numero di richieste in attesa non e' ancora sceso sotto la soglia di ripresa, in questo
+	 * caso i reactor non riprendono a leggere dai client a cui e' stata rifiutata una richiesta
+	 * @return
+	 */
+	public static boolean isSaturated() {
+		return pendingTasks.get() > resumeThreshold();
+	}
+
+	/**
+	 * Ritorna una descrizione dei contatori dell'admission control
+	 * @return
+	 */
+	public static String getStats() {
+		return "executor: richieste in attesa " + pendingTasks.get() + "/" + ServerConfig.MAX_PENDING_REQUESTS +
+				", rifiutate " + rejectedRequests.get();
+	}
+
+	/**
+	 * Chiamato al termine di ogni task. Quando le richieste in attesa scendono sotto la soglia di ripresa i reactor
+	 * vengono svegliati per tornare a leggere dai client messi in pausa
+	 */
+	private static void release() {
+		int pending = pendingTasks.decrementAndGet();
+		if (saturated && pending <= resumeThreshold()) {
+			saturated = false;
+			for (Reactor reactor: ServerMain.reactors) {
+				reactor.resumeReading();
+			}
+		}
+	}
+
+	private static int resumeThreshold() {
+		return ServerConfig.MAX_PENDING_REQUESTS / 2;
+	}
+
+	/**
+	 * Metodo principale task, eseguito dalla corsia dell'executor. Gestisce la richiesta e poi avvia la successiva
+	 * inviata in pipeline dallo stesso client
 	 */
 	@Override
 	public void run() {
 
+		long startNanos = System.nanoTime();
+		try {
+			this.handle();
+		} finally {
+			// Anche se la gestione termina con un errore inatteso la richiesta libera il suo posto nel limite globale
+			lane.taskCompleted(startNanos - submitNanos, System.nanoTime() - startNanos);
+			release();
+		}
+
+		// Avvio la prossima richiesta inviata in pipeline dal client, se presente
+		// Se il server e' saturo la richiesta viene rifiutata e il reactor smette di leggere dal client
+		ClientSession session = (ClientSession) key.attachment();
+		TcpRequest next = session.nextRequest();
+		if (next != null && !RequestTask.submit(key, next)) {
+			session.getReactor().pause(key);
+		}
+	}
+
+	/**
+	 * Si limita a fare uno switch sul comando ricevuto dall'utente e a smistarlo alla corretta funzione. La risposta
+	 * viene accodata nella sessione salvata nell'attachment della SelectionKey.
+	 */
+	private void handle() {
+
 		TcpResponse response;
 		try {
 			SocketAddress clientAddress = client.getRemoteAddress();
@@ -97,8 +209,20 @@ public class RequestTask implements Runnable {
 			response = new TcpResponse(INTERNAL_SERVER_ERROR);
 		}
 
-		// Copio la risposta nell'allegato della chiave. Verrà usato da Server.main per rispondere al client (NIO)
-		key.attach(response);
+		// Accodo la risposta nella sessione del client e notifico il reactor della connessione che la inviera' (NIO)
+		response.id = request.id;
+		ServerMain.sendTcpMessage(key, response);
+	}
+
+	/**
+	 * Aggiorna la posizione in classifica dell'utente e notifica i client iscritti se sono cambiate le prime posizioni
+	 * @param user
+	 */
+	private void updateRank(User user) {
+		Leaderboard.Move rankMove = userService.updateRank(user);
+		if (wordleGameService.isRankChanged(rankMove)) {
+			ServerMain.notifyRankToClient(userService.getRank());
+		}
 	}
 
 	/**
@@ -121,7 +245,7 @@ public class RequestTask implements Runnable {
 	 * @return
 	 * @throws IOException
 	 */
-	private synchronized TcpResponse login(TcpRequest request) throws IOException, WordleException {
+	private TcpResponse login(TcpRequest request) throws IOException, WordleException {
 
 		// Controllo manualmente, non posso ritornare INVALID_USERNAME
 		User user = this.userService.getUser(request.username);
@@ -133,13 +257,9 @@ public class RequestTask implements Runnable {
 			throw new WordleException(ALREADY_LOGGED_IN);
 		}
 
-		// Mi memorizzo hash code di indirizzo ip:porta del client, mi permette di fare logout di utente quando effettua una disconnessione forzata
-		int clientHashCode = this.client.getRemoteAddress().hashCode();
-		boolean success = this.userService.login(request.username, request.data, clientHashCode);
-
-		if (!success) {
-			throw new WordleException(INVALID_USERNAME_PASSWORD);
-		}
+		// Associo l'utente alla sessione della connessione, mi permette di fare logout quando il client effettua una
+		// disconnessione forzata. Da ora la connessione usa il timeout di inattivita' degli utenti loggati
+		this.userService.login(request.username, request.data, (ClientSession) key.attachment());
 
 		return new TcpResponse(OK);
 	}
@@ -149,7 +269,7 @@ public class RequestTask implements Runnable {
 	 * @param request
 	 * @return
 	 */
-	private synchronized TcpResponse logout(TcpRequest request) throws WordleException {
+	private TcpResponse logout(TcpRequest request) throws WordleException {
 		User user = checkUser(request.username);
 		boolean success = this.userService.logout(user);
 
@@ -176,15 +296,20 @@ public class RequestTask implements Runnable {
 		String actualWord = state.word;
 
 		// Aggiunto gioco al giocatore attuale
-		if (lastGame == null || !lastGame.word.equals(actualWord)) {
+		if (lastGame == null || !lastGame.hasWord(actualWord)) {
 			user.newGame(actualWord, wordleGameService.getGameNumber());
+			// La nuova partita cambia la media dei tentativi, quindi il punteggio
+			this.updateRank(user);
+			journalService.append(JournalEntry.newGame(user.getUsername(), actualWord, user.getLastGame().gameNumber));
+			// La partita precedente resta in memoria finche' l'utente e' tra i piu' attivi
+			GameArchive.getInstance().touch(user);
 			response.code = OK;
 			response.remainingAttempts = user.getLastGame().getRemainingAttempts();
-			response.userGuess = wordleGameService.buildUserHint(user.getLastGame().getUserGuess(), actualWord);
-		} else if (lastGame.word.equals(actualWord) && !lastGame.finished) {
+			response.hintRows = wordleGameService.buildUserHint(user.getLastGame());
+		} else if (lastGame.hasWord(actualWord) && !lastGame.finished) {
 			response.code = OK;
 			response.remainingAttempts = user.getLastGame().getRemainingAttempts();
-			response.userGuess = wordleGameService.buildUserHint(user.getLastGame().getUserGuess(), actualWord);
+			response.hintRows = wordleGameService.buildUserHint(user.getLastGame());
 		} else {
 			response.code = GAME_ALREADY_PLAYED;
 		}
@@ -213,10 +338,12 @@ public class RequestTask implements Runnable {
 		res.remainingAttempts = lastGame.getRemainingAttempts();
 
 		// Ultimo gioco dell'utente e' diverso dalla parola attualmente estratta
-		if (!lastGame.word.equals(actualWord)) {
+		if (!lastGame.hasWord(actualWord)) {
 			// Se ultimo gioco non e' finito, e la parola e' cambiata allora lo elimino.
 			if (!lastGame.finished) {
 				user.removeLastGame();
+				this.updateRank(user);
+				journalService.append(JournalEntry.removeGame(user.getUsername(), lastGame.gameNumber));
 			}
 			throw new WordleException(NEED_TO_START_GAME);
 		}
@@ -238,22 +365,20 @@ public class RequestTask implements Runnable {
 			return res;
 		}
 
-		List<UserScore> oldRank = userService.getRank();
+		int attempt = lastGame.getAttempts();
 		user.addGuessLastGame(clientWord);
-		userService.updateRank();
-		List<UserScore> newRank = userService.getRank();
+		journalService.append(JournalEntry.guess(user.getUsername(), lastGame.gameNumber, attempt, clientWord));
+		// Aggiorno in classifica solo la posizione dell'utente
+		this.updateRank(user);
 
 		// Se la partita e' finita lo comunico al client
 		if (lastGame.finished) {
 			res.code = lastGame.won ? GAME_WON : GAME_LOST;
 			res.wordTranslation = state.translation;
-			if (wordleGameService.isRankChanged(oldRank, newRank)) {
-				ServerMain.notifyRankToClient(userService.getRank());
-			}
 		}
 
 		res.remainingAttempts = lastGame.getRemainingAttempts();
-		res.userGuess = wordleGameService.buildUserHint(lastGame.getUserGuess(), actualWord);
+		res.hintRows = wordleGameService.buildUserHint(lastGame);
 
 		return res;
 	}
@@ -290,9 +415,10 @@ public class RequestTask implements Runnable {
 		}
 
 		// Invio ultima partita dell'utente su gruppo multicast
-		logger.debug("Invio ultima partita dell'utente " + username + " sul gruppo sociale. word: "+lastGame.word + ",wordle n."+lastGame.gameNumber);
-		SharedGame share = new SharedGame(username, lastGame.gameNumber, wordleGameService.buildUserHint(lastGame.getUserGuess(), lastGame.word));
-		ServerMain.sendMulticastMessage(JsonService.toJson(share));
+		logger.debug("Invio ultima partita dell'utente " + username + " sul gruppo sociale. word: "+lastGame.getWord() + ",wordle n."+lastGame.gameNumber);
+		// Il messaggio (SharedGame) viene composto dalle righe dei suggerimenti gia' codificate
+		HintRow[] hints = wordleGameService.buildUserHint(lastGame);
+		ServerMain.sendMulticastMessage(JsonService.toSharedGameJson(username, lastGame.gameNumber, hints));
 		return new TcpResponse(OK);
 	}
 
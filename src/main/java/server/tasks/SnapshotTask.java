@@ -0,0 +1,58 @@
+package server.tasks;
+
+import common.utils.WordleLogger;
+import server.services.JournalService;
+import server.services.UserService;
+import server.services.WordleGameService;
+
+import java.io.IOException;
+
+/**
+ * Task eseguito periodicamente che salva lo snapshot di utenti e stato del gioco, poi elimina i segmenti del journal
+ * gia' contenuti nello snapshot. Le richieste dei client proseguono durante il salvataggio: ogni utente viene copiato
+ * tenendo solo il proprio lock e la scrittura su file avviene sulla copia
+ */
+public class SnapshotTask implements Runnable {
+	private static final WordleLogger logger = new WordleLogger(SnapshotTask.class.getName());
+	private long lastSnapshotEntries = -1; // Modifiche del journal al momento dell'ultimo snapshot periodico
+
+	@Override
+	public void run() {
+		// Se non ci sono state modifiche lo snapshot sarebbe uguale al precedente
+		long entries = JournalService.getInstance().getEnqueuedEntries();
+		if (entries == this.lastSnapshotEntries) {
+			return;
+		}
+		if (snapshot()) {
+			this.lastSnapshotEntries = entries;
+		}
+	}
+
+	/**
+	 * Salva uno snapshot, puo' essere chiamato anche fuori dal task periodico (es. alla terminazione del server)
+	 * @return false se il salvataggio non e' riuscito
+	 */
+	public static synchronized boolean snapshot() {
+		JournalService journalService = JournalService.getInstance();
+		long startNanos = System.nanoTime();
+
+		// Le modifiche messe nel journal prima di questo punto sono gia' applicate in memoria e finiscono nella copia:
+		// i segmenti precedenti potranno essere eliminati. Quelle successive possono essere sia nello snapshot che nel
+		// nuovo segmento, cosi' come tutti i segmenti se il server termina prima di deleteSegments(). Il replay le
+		// ignora perche' applica una modifica solo se fa avanzare lo stato: parola e partita con numero maggiore
+		// dell'ultimo, tentativo sul numero di tentativi attuale, fine o rimozione della partita in corso
+		int lastSegment = journalService.roll();
+		try {
+			long usersBytes = UserService.getInstance().saveUsers();
+			long stateBytes = WordleGameService.getInstance().saveState();
+			journalService.deleteSegments(lastSegment);
+			logger.info("Snapshot completato in " + (System.nanoTime() - startNanos) / 1000000 + " ms (utenti " +
+					usersBytes + " bytes, gioco " + stateBytes + " bytes)");
+			return true;
+		} catch (IOException e) {
+			// I segmenti del journal vengono mantenuti, al prossimo avvio verranno riapplicati allo snapshot precedente
+			logger.error("Errore salvataggio snapshot! " + e);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package server.tasks;
+
+import common.utils.WordleLogger;
+import server.ServerMain;
+import server.entity.RequestLane;
+import server.services.GameArchive;
+import server.services.JournalService;
+import server.thread.Reactor;
+
+/**
+ * Task eseguito periodicamente che stampa le statistiche del server
+ */
+public class StatsTask implements Runnable {
+	private final WordleLogger logger = new WordleLogger(StatsTask.class.getName());
+
+	@Override
+	public void run() {
+
+		// Contatori dei reactor, permettono di verificare che il carico sia bilanciato
+		for (Reactor reactor: ServerMain.reactors) {
+			logger.info(reactor.getStats());
+		}
+		// Profondita' della coda e richieste rifiutate dall'admission control
+		logger.info(RequestTask.getStats());
+		// Tempi di attesa ed esecuzione delle singole corsie dell'executor
+		for (RequestLane lane: ServerMain.requestLanes) {
+			logger.info(lane.getStats());
+		}
+		// Modifiche scritte nel journal e quante ne raggruppa ogni fsync
+		logger.info(JournalService.getInstance().getStats());
+		logger.info(GameArchive.getInstance().getStats());
+	}
+}
@@ -3,8 +3,10 @@ package server.tasks;
 import common.dto.MyMemoryResponse;
 import common.enums.AnsiColor;
 import common.utils.WordleLogger;
+import server.entity.JournalEntry;
 import server.entity.ServerConfig;
 import server.entity.WordleGameState;
+import server.services.JournalService;
 import server.services.JsonService;
 import server.services.WordleGameService;
 
@@ -35,6 +37,7 @@ public class WordExtractorTask implements Runnable {
 			logger.info("Parola scaduta, nuova parola estratta: " + AnsiColor.WHITE_BOLD + state.word + AnsiColor.RESET + ", traduzione: " + state.translation);
 			state.extractedAt = new Date();
 			state.gameNumber++;
+			JournalService.getInstance().append(JournalEntry.word(state));
 
 		} catch (Exception e){
 			// In caso di eccezione, ripristino la vecchia parola, in modo da far proseguire il gioco e non generare errori
@@ -0,0 +1,431 @@
+package server.thread;
+
+import common.dto.TcpRequest;
+import common.dto.TcpResponse;
+import common.utils.WordleLogger;
+import server.ServerMain;
+import server.entity.BufferPool;
+import server.entity.ClientSession;
+import server.entity.ServerConfig;
+import server.entity.TimerWheel;
+import server.services.UserService;
+import server.tasks.RequestTask;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static common.enums.ResponseCodeEnum.BAD_REQUEST;
+
+/**
+ * Thread che gestisce letture e scritture di un sottoinsieme delle connessioni TCP con un proprio selector.
+ * Le nuove connessioni vengono accettate da ServerMain e assegnate a turno ai vari reactor.
+ */
+public class Reactor extends Thread {
+
+	private static final WordleLogger logger = new WordleLogger(Reactor.class.getName());
+	private static final int IDLE_WHEEL_SLOTS = 512;
+	private static final long IDLE_WHEEL_TICK_MS = 1000;
+	private final Selector selector;
+	private final BufferPool bufferPool = new BufferPool(); // Buffer per serializzare le risposte
+	private final UserService userService = UserService.getInstance();
+	// Connessioni accettate da ServerMain e non ancora registrate sul selector
+	private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+	// Chiavi dei client per cui un task ha accodato una risposta, consumate dal thread del reactor
+	private final Queue<SelectionKey> completedKeys = new ConcurrentLinkedQueue<>();
+	// Connessioni la cui richiesta successiva in pipeline e' stata rifiutata da un task, consumate dal thread del reactor
+	private final Queue<SelectionKey> rejectedKeys = new ConcurrentLinkedQueue<>();
+	// Connessioni da cui ho smesso di leggere perche' il server era saturo, usata solo dal thread del reactor
+	private final List<SelectionKey> pausedKeys = new ArrayList<>();
+	private volatile boolean resumeRequested = false;
+	// Timeout di inattivita' delle connessioni, fatta avanzare dal loop del reactor
+	private final TimerWheel<SelectionKey> idleWheel = new TimerWheel<>(IDLE_WHEEL_SLOTS, IDLE_WHEEL_TICK_MS);
+	private long now; // Istante di inizio dell'iterazione corrente del loop (ms)
+
+	// Contatori per verificare il bilanciamento del carico tra i reactor
+	private final AtomicInteger activeConnections = new AtomicInteger();
+	private final AtomicLong totalConnections = new AtomicLong();
+	private final AtomicLong handledRequests = new AtomicLong();
+	private final AtomicLong sentResponses = new AtomicLong();
+	private final AtomicInteger pausedConnections = new AtomicInteger();
+	private final AtomicLong idleClosedConnections = new AtomicLong();
+
+	public Reactor(int id) throws IOException {
+		super("reactor-" + id);
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Assegna una nuova connessione al reactor, verra' registrata sul selector dal thread del reactor
+	 * @param channel
+	 */
+	public void register(SocketChannel channel) {
+		newChannels.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Notifica al reactor che per la chiave specificata e' stata accodata una risposta
+	 * @param key
+	 */
+	public void complete(SelectionKey key) {
+		sentResponses.incrementAndGet();
+		completedKeys.add(key);
+		selector.wakeup();
+	}
+
+	/**
+	 * Notifica al reactor che una richiesta del client e' stata rifiutata fuori dal suo thread (richiesta successiva in
+	 * pipeline avviata da un task): il reactor smette di leggere dal client come in dispatchRequests
+	 * @param key
+	 */
+	public void pause(SelectionKey key) {
+		rejectedKeys.add(key);
+		selector.wakeup();
+	}
+
+	/**
+	 * Chiamato quando il server non e' piu' saturo, il reactor torna a leggere dalle connessioni messe in pausa
+	 */
+	public void resumeReading() {
+		resumeRequested = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Ferma il reactor, il selector viene chiuso dal thread del reactor all'uscita dal loop
+	 */
+	public void shutdown() {
+		interrupt();
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+
+		logger.debug("Reactor in ascolto...");
+
+		while (!isInterrupted()) {
+
+			try {
+				// Bloccante, si ferma fino a quando almeno un canale non e' pronto oppure viene chiamato wakeup().
+				// Mi risveglio comunque al prossimo tick dei timeout di inattivita' e, se ci sono connessioni in
+				// pausa, periodicamente per controllare se il server e' ancora saturo
+				long timeout = idleWheel.millisToNextTick(currentTimeMillis());
+				if (!pausedKeys.isEmpty() && (timeout < 0 || timeout > ServerConfig.BUSY_RETRY_AFTER_MS)) {
+					timeout = ServerConfig.BUSY_RETRY_AFTER_MS + 1;
+				}
+				if (timeout < 0) {
+					selector.select();
+				} else {
+					selector.select(timeout);
+				}
+			} catch (IOException e) {
+				logger.error("Errore durante la selezione di un canale! " + e);
+				break;
+			}
+
+			if (isInterrupted()) {
+				break;
+			}
+
+			now = currentTimeMillis();
+
+			// Prima registro le nuove connessioni e gestisco le risposte completate dalla threadpool
+			this.registerNewChannels();
+			// Le pause vanno applicate prima dell'invio delle risposte, che riprende a leggere le richieste in coda
+			this.pauseRejectedKeys();
+			this.handleCompletedKeys();
+			this.resumePausedKeys();
+			// Chiudo le connessioni inattive
+			idleWheel.advance(now, this::checkIdle);
+
+			Set<SelectionKey> selectedKeys = selector.selectedKeys();
+			// Iteratore delle chiavi
+			Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+			// Fino a che ci sono canali pronti continuo a ciclare
+			while (keyIterator.hasNext()) {
+				SelectionKey key = keyIterator.next();
+				// Rimuovo la chiave dall'iteratore, il selector non rimuove automaticamente le chiavi
+				keyIterator.remove();
+
+				try {
+
+					// Canale pronto per la lettura
+					if (key.isReadable()) {
+
+						SocketChannel client = (SocketChannel) key.channel();
+						ClientSession session = (ClientSession) key.attachment();
+
+						// Se il client ha chiuso il canale potrebbe trattarsi di una disconnessione forzata
+						if (session.read(client) < 0) {
+							logger.warn("Disconnessione forzata del client " + client.getRemoteAddress());
+							this.closeClient(key);
+							continue;
+						}
+						session.setLastActivity(now);
+
+						// Se ho ricevuto dei messaggi completi li smisto alla threadpool
+						this.dispatchRequests(key);
+					}
+
+					// Canale pronto per la scrittura. Il selector e' registrato in OP_WRITE solo quando una scrittura
+					// precedente e' stata parziale
+					if (key.isValid() && key.isWritable()) {
+						this.flushClient(key);
+					}
+
+				} catch (IOException ioe) {
+					// Errore imprevisto (oppure frame non valido)
+					logger.error("Errore connessione client, chiudo il canale. " + ioe);
+					this.closeClient(key);
+				}
+			}
+		}
+
+		// Chiudo le connessioni rimaste aperte e il selector
+		for (SelectionKey key: selector.keys()) {
+			try {key.channel().close();} catch (IOException ignore) {}
+		}
+		try {selector.close();} catch (IOException ignore) {}
+		logger.debug("Reactor terminato");
+	}
+
+	/**
+	 * Registra sul selector le connessioni assegnate al reactor
+	 */
+	private void registerNewChannels() {
+
+		SocketChannel client;
+		while ((client = newChannels.poll()) != null) {
+			try {
+				// Aggiungo il client al selector su operazioni di READ, l'attachment mantiene lo stato della connessione
+				ClientSession session = new ClientSession(this);
+				SelectionKey key = client.register(selector, SelectionKey.OP_READ, session);
+				session.setLastActivity(now);
+				session.setIdleTimeout(idleWheel.schedule(key, now, idleTimeoutMillis(session)));
+				activeConnections.incrementAndGet();
+				totalConnections.incrementAndGet();
+			} catch (IOException e) {
+				logger.error("Impossibile registrare nuova connessione " + e);
+				try {client.close();} catch (IOException ignore) {}
+			}
+		}
+	}
+
+	/**
+	 * Mette in pausa le connessioni a cui un task ha rifiutato la richiesta successiva in pipeline
+	 */
+	private void pauseRejectedKeys() {
+
+		SelectionKey key;
+		while ((key = rejectedKeys.poll()) != null) {
+			ClientSession session = (ClientSession) key.attachment();
+			if (!key.isValid() || session.isReadPaused()) {
+				continue;
+			}
+			session.setReadPaused(true);
+			pausedKeys.add(key);
+			pausedConnections.incrementAndGet();
+			this.updateInterestOps(key);
+		}
+	}
+
+	/**
+	 * Consuma la coda delle risposte completate dalla threadpool e prova a inviarle subito ai client
+	 */
+	private void handleCompletedKeys() {
+
+		SelectionKey key;
+		while ((key = completedKeys.poll()) != null) {
+			// Il client potrebbe essersi disconnesso mentre il task era in esecuzione
+			if (!key.isValid()) {
+				continue;
+			}
+			try {
+				this.flushClient(key);
+			} catch (IOException e) {
+				logger.error("Errore connessione client, chiudo il canale. " + e);
+				this.closeClient(key);
+			}
+		}
+	}
+
+	/**
+	 * Riprende a leggere dalle connessioni messe in pausa se le richieste in attesa sono scese sotto la soglia
+	 */
+	private void resumePausedKeys() {
+
+		if (pausedKeys.isEmpty() || (!resumeRequested && RequestTask.isSaturated())) {
+			return;
+		}
+		resumeRequested = false;
+		List<SelectionKey> keys = new ArrayList<>(pausedKeys);
+		pausedKeys.clear();
+		pausedConnections.set(0);
+		for (SelectionKey key: keys) {
+			if (!key.isValid()) {
+				continue;
+			}
+			((ClientSession) key.attachment()).setReadPaused(false);
+			try {
+				// Il client potrebbe aver gia' inviato altre richieste, rimaste nel buffer di accumulo
+				this.dispatchRequests(key);
+			} catch (IOException e) {
+				logger.error("Errore connessione client, chiudo il canale. " + e);
+				this.closeClient(key);
+			}
+		}
+	}
+
+	/**
+	 * Chiamato alla scadenza del timeout di inattivita' di una connessione. Il timeout non viene spostato ad ogni
+	 * lettura: se nel frattempo il client ha inviato qualcosa (o il server sta lavorando per lui) viene
+	 * riprogrammato, altrimenti la connessione viene chiusa e l'utente disconnesso
+	 * @param key
+	 */
+	private void checkIdle(SelectionKey key) {
+
+		if (!key.isValid()) {
+			return;
+		}
+		ClientSession session = (ClientSession) key.attachment();
+		// Il timeout dipende dallo stato della connessione, che puo' essere cambiato dall'ultima programmazione
+		long timeout = idleTimeoutMillis(session);
+		long idle = now - session.getLastActivity();
+
+		if (session.isBusy()) {
+			session.setIdleTimeout(idleWheel.schedule(key, now, timeout));
+		} else if (idle < timeout) {
+			session.setIdleTimeout(idleWheel.schedule(key, now, timeout - idle));
+		} else {
+			try {
+				logger.info("Chiudo connessione inattiva da " + (idle / 1000) + " secondi del client " + ((SocketChannel) key.channel()).getRemoteAddress());
+			} catch (IOException ignore) {}
+			idleClosedConnections.incrementAndGet();
+			this.closeClient(key);
+		}
+	}
+
+	private static long idleTimeoutMillis(ClientSession session) {
+		int seconds = session.isAuthenticated() ? ServerConfig.IDLE_USER_TIMEOUT_SECONDS : ServerConfig.IDLE_GUEST_TIMEOUT_SECONDS;
+		return seconds * 1000L;
+	}
+
+	private static long currentTimeMillis() {
+		// Orologio monotono, non risente delle modifiche all'ora di sistema
+		return System.nanoTime() / 1000000;
+	}
+
+	/**
+	 * Converte in TcpRequest le richieste complete presenti nel buffer della connessione e le mette in coda alla
+	 * threadpool. Il client puo' inviare piu' richieste senza attendere le risposte, fino al limite della pipeline
+	 * @param key
+	 * @throws IOException
+	 */
+	private void dispatchRequests(SelectionKey key) throws IOException {
+
+		ClientSession session = (ClientSession) key.attachment();
+		ByteBuffer frame;
+
+		while (!session.isReadPaused() && session.canAcceptRequests() && (frame = session.nextFrame()) != null) {
+
+			handledRequests.incrementAndGet();
+
+			TcpRequest request;
+			try {
+				request = session.getCodec().decodeRequest(frame);
+			} catch (ProtocolException e) {
+				logger.warn("Richiesta malformata dal client " + e.getMessage());
+				ServerMain.sendTcpMessage(key, new TcpResponse(BAD_REQUEST));
+				continue;
+			} finally {
+				session.releaseFrame();
+			}
+
+			// Se non ci sono altre richieste del client in esecuzione metto in coda alla threadpool il nuovo task.
+			// Se il server e' saturo la richiesta viene rifiutata e smetto di leggere dal client fino alla ripresa
+			if (session.offerRequest(request) && !RequestTask.submit(key, request)) {
+				session.setReadPaused(true);
+				pausedKeys.add(key);
+				pausedConnections.incrementAndGet();
+			}
+		}
+
+		this.updateInterestOps(key);
+	}
+
+	/**
+	 * Scrive sul canale le risposte in coda per il client, se la scrittura e' parziale riprendo alla prossima OP_WRITE
+	 * @param key
+	 * @throws IOException
+	 */
+	private void flushClient(SelectionKey key) throws IOException {
+
+		SocketChannel client = (SocketChannel) key.channel();
+		ClientSession session = (ClientSession) key.attachment();
+
+		session.flush(client, bufferPool);
+		// Una richiesta e' stata completata, il client potrebbe aver gia' inviato le successive
+		this.dispatchRequests(key);
+	}
+
+	/**
+	 * Aggiorna le operazioni di interesse del canale: lettura solo se la pipeline del client non e' piena e la
+	 * connessione non e' in pausa, scrittura solo se ci sono risposte che il canale non ha ancora accettato
+	 * @param key
+	 */
+	private void updateInterestOps(SelectionKey key) {
+		ClientSession session = (ClientSession) key.attachment();
+		int ops = !session.isReadPaused() && session.canAcceptRequests() ? SelectionKey.OP_READ : 0;
+		if (session.hasPendingWrites()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		key.interestOps(ops);
+	}
+
+	/**
+	 * Chiude la connessione con il client effettuando il logout dell'utente associato
+	 * @param key
+	 */
+	private void closeClient(SelectionKey key) {
+		// La chiave potrebbe essere gia' stata chiusa
+		if (!key.isValid()) {
+			return;
+		}
+		key.cancel();
+		activeConnections.decrementAndGet();
+		ClientSession session = (ClientSession) key.attachment();
+		session.close(bufferPool);
+		// Effettuo la disconnessione dell'utente associato alla sessione
+		userService.logout(session);
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			logger.error("Errore imprevisto! " + e);
+		}
+	}
+
+	/**
+	 * Ritorna una descrizione dei contatori del reactor
+	 * @return
+	 */
+	public String getStats() {
+		return getName() + ": connessioni attive " + activeConnections.get() + " (totali " + totalConnections.get() + ")" +
+				", in pausa " + pausedConnections.get() + ", chiuse per inattivita' " + idleClosedConnections.get() +
+				", richieste " + handledRequests.get() + ", risposte " + sentResponses.get() +
+				", buffer liberi " + bufferPool.getFreeBuffers() + " (allocati " + bufferPool.getAllocatedBuffers() + ")";
+	}
+}
@@ -2,8 +2,11 @@ package server.thread;
 
 import common.utils.WordleLogger;
 import server.ServerMain;
-import server.services.UserService;
-import server.services.WordleGameService;
+import server.entity.RequestLane;
+import server.services.GameArchive;
+import server.services.JournalService;
+import server.tasks.RequestTask;
+import server.tasks.SnapshotTask;
 
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
@@ -14,28 +17,47 @@ import java.util.concurrent.TimeUnit;
 public class ServerShutdownHook extends Thread {
 
 	private final WordleLogger logger = new WordleLogger(ServerShutdownHook.class.getName());
-	private final UserService userService = UserService.getInstance();
-	private final WordleGameService wordleGameService = WordleGameService.getInstance();
+	private final JournalService journalService = JournalService.getInstance();
 
 	@Override
 	public void run() {
 		logger.info("Terminazione Wordle server...");
 
-		// Richiesta di terminazione graduale del thread pool
-		ServerMain.poolExecutor.shutdown();
+		// Richiesta di terminazione graduale delle corsie dell'executor
+		for (RequestLane lane: ServerMain.requestLanes) {
+			lane.shutdown();
+		}
 		try {
-			// Attendo che la threadpool sia terminata per un massimo di 10 secondi
-			if (ServerMain.poolExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+			// Attendo che le corsie siano terminate per un massimo di 10 secondi complessivi
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			boolean terminated = true;
+			for (RequestLane lane: ServerMain.requestLanes) {
+				terminated &= lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+			if (terminated) {
 				logger.debug("Thread pool terminata correttamente");
 			}
 		} catch (InterruptedException ignore) {}
 
-		// Interrompo word update
+		// Interrompo word update, snapshot periodici e statistiche
 		ServerMain.wordUpdateExecutor.shutdown();
-		// Salvo utenti su file
-		this.userService.saveUsers();
-		// Salvo stato del gioco su file
-		this.wordleGameService.saveState();
+		ServerMain.snapshotExecutor.shutdown();
+		ServerMain.statsExecutor.shutdown();
+		// Fermo i reactor, stampando un'ultima volta i loro contatori
+		for (Reactor reactor: ServerMain.reactors) {
+			logger.info(reactor.getStats());
+			reactor.shutdown();
+		}
+		logger.info(RequestTask.getStats());
+		for (RequestLane lane: ServerMain.requestLanes) {
+			logger.info(lane.getStats());
+		}
+		logger.info(this.journalService.getStats());
+		logger.info(GameArchive.getInstance().getStats());
+		// Salvo utenti e stato del gioco su file, il journal gia' salvato nello snapshot viene eliminato
+		SnapshotTask.snapshot();
+		this.journalService.close();
+		GameArchive.getInstance().close();
 		// Chiudo socket multicast
 		ServerMain.multicastSocket.close();
 		// Chiudo socket channel
@@ -0,0 +1,92 @@
+package common.entity;
+
+import common.utils.PackedWord;
+
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark dell'occupazione in memoria delle partite: partite codificate con PackedWord (WordleGame) confrontate con
+ * la rappresentazione precedente, con parola e tentativi come String (LegacyGame). Le partite hanno parole del
+ * dizionario e da 1 a 12 tentativi; ogni parola e' una String distinta, come quelle lette dal file json.
+ * Stampa l'heap occupato dopo una garbage collection completa.
+ * Non viene eseguito con i test, si avvia dalla cartella del progetto con:
+ * mvn -B test-compile
+ * java -Xmx4g -cp target/classes:target/test-classes:gson-2.8.9.jar common.entity.GameFootprintBenchmark [partite]
+ */
+public class GameFootprintBenchmark {
+
+	/**
+	 * Partita come veniva mantenuta in memoria prima della codifica
+	 */
+	private static class LegacyGame {
+		final String word;
+		final int gameNumber;
+		boolean won;
+		boolean finished;
+		final List<String> userGuess = new ArrayList<>();
+
+		LegacyGame(String word, int gameNumber) {
+			this.word = word;
+			this.gameNumber = gameNumber;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		List<String> words = Files.readAllLines(Paths.get("src/main/java/dictionary/words.txt"));
+		words.removeIf(word -> !PackedWord.isPackable(word));
+
+		long baseline = usedHeap();
+		List<LegacyGame> legacyGames = new ArrayList<>(games);
+		Random random = new Random(1);
+		for (int i = 0; i < games; i++) {
+			LegacyGame game = new LegacyGame(new String(words.get(random.nextInt(words.size())).toCharArray()), i);
+			int attempts = 1 + random.nextInt(12);
+			for (int attempt = 0; attempt < attempts; attempt++) {
+				game.userGuess.add(new String(words.get(random.nextInt(words.size())).toCharArray()));
+			}
+			game.won = random.nextBoolean();
+			game.finished = true;
+			legacyGames.add(game);
+		}
+		long legacyBytes = usedHeap() - baseline;
+		// Le partite devono restare raggiungibili durante la misura
+		Reference.reachabilityFence(legacyGames);
+		legacyGames = null;
+
+		baseline = usedHeap();
+		List<WordleGame> packedGames = new ArrayList<>(games);
+		random = new Random(1);
+		for (int i = 0; i < games; i++) {
+			WordleGame game = new WordleGame(words.get(random.nextInt(words.size())), i);
+			int attempts = 1 + random.nextInt(12);
+			for (int attempt = 0; attempt < attempts; attempt++) {
+				game.addGuess(words.get(random.nextInt(words.size())));
+			}
+			game.won = random.nextBoolean();
+			game.finished = true;
+			packedGames.add(game);
+		}
+		long packedBytes = usedHeap() - baseline;
+		Reference.reachabilityFence(packedGames);
+
+		System.out.println(games + " partite: String " + legacyBytes / (1024 * 1024) + " MB (" + legacyBytes / games +
+				" byte/partita), PackedWord " + packedBytes / (1024 * 1024) + " MB (" + packedBytes / games +
+				" byte/partita)");
+		System.exit(0);
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
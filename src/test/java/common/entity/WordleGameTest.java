@@ -0,0 +1,88 @@
+package common.entity;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WordleGameTest {
+
+	private final Gson gson = new Gson();
+
+	@Test
+	void readLegacyJson() {
+		// Formato precedente alla codifica: parola e tentativi in chiaro
+		String json = "{\"word\":\"abide\",\"gameNumber\":7,\"won\":true,\"finished\":true," +
+				"\"userGuess\":[\"speed\",\"zzzzzzzzzzzz\",\"abide\"]}";
+		WordleGame game = this.gson.fromJson(json, WordleGame.class);
+
+		assertEquals("abide", game.getWord());
+		assertTrue(game.hasWord("abide"));
+		assertEquals(7, game.gameNumber);
+		assertTrue(game.won);
+		assertTrue(game.finished);
+		assertEquals(Arrays.asList("speed", "zzzzzzzzzzzz", "abide"), game.getUserGuess());
+	}
+
+	@Test
+	void readLegacyJsonWithoutGuesses() {
+		WordleGame game = this.gson.fromJson("{\"word\":\"abide\",\"gameNumber\":1,\"won\":false,\"finished\":false," +
+				"\"userGuess\":[]}", WordleGame.class);
+		assertEquals(0, game.getAttempts());
+		assertEquals(List.of(), game.getUserGuess());
+	}
+
+	@Test
+	void legacyWordNotPackable() {
+		assertThrows(JsonSyntaxException.class, () -> this.gson.fromJson("{\"word\":\"Abide\",\"gameNumber\":1}", WordleGame.class));
+		assertThrows(JsonSyntaxException.class, () -> this.gson.fromJson("{\"word\":\"abide\",\"gameNumber\":1," +
+				"\"userGuess\":[\"abcdefghijklm\"]}", WordleGame.class));
+	}
+
+	@Test
+	void jsonRoundTrip() {
+		WordleGame game = newGame();
+		WordleGame read = this.gson.fromJson(this.gson.toJson(game), WordleGame.class);
+		assertSameGame(game, read);
+	}
+
+	@Test
+	void binaryRoundTrip() throws IOException {
+		WordleGame game = newGame();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		game.writeTo(new DataOutputStream(bytes));
+		assertEquals(game.getEncodedSize(), bytes.size());
+
+		WordleGame read = WordleGame.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertSameGame(game, read);
+	}
+
+	private static WordleGame newGame() {
+		WordleGame game = new WordleGame("zzzzzzzzzzzz", 42);
+		game.addGuess("abcdefghijkl");
+		game.addGuess("zzzzzzzzzzzz");
+		game.won = true;
+		game.finished = true;
+		return game;
+	}
+
+	private static void assertSameGame(WordleGame expected, WordleGame actual) {
+		assertEquals(expected.getWord(), actual.getWord());
+		assertEquals(expected.getPackedWord(), actual.getPackedWord());
+		assertEquals(expected.gameNumber, actual.gameNumber);
+		assertEquals(expected.won, actual.won);
+		assertEquals(expected.finished, actual.finished);
+		assertEquals(expected.getUserGuess(), actual.getUserGuess());
+	}
+}
@@ -0,0 +1,82 @@
+package common.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PackedWordTest {
+
+	@Test
+	void roundTripRandomWords() {
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			char[] letters = new char[random.nextInt(PackedWord.MAX_LENGTH + 1)];
+			for (int j = 0; j < letters.length; j++) {
+				letters[j] = (char) ('a' + random.nextInt(26));
+			}
+			assertRoundTrip(new String(letters));
+		}
+	}
+
+	@Test
+	void roundTripLimits() {
+		assertRoundTrip("");
+		assertRoundTrip("a");
+		assertRoundTrip("z");
+		assertRoundTrip("zzzzzzzzzzzz"); // MAX_LENGTH lettere, tutti i bit delle lettere a 1
+		assertRoundTrip("abcdefghijkl");
+		assertEquals(PackedWord.MAX_LENGTH, "zzzzzzzzzzzz".length());
+	}
+
+	@Test
+	void letterMask() {
+		assertEquals(0, PackedWord.letterMask(PackedWord.pack("")));
+		assertEquals(1, PackedWord.letterMask(PackedWord.pack("aaa")));
+		assertEquals(1 << 25, PackedWord.letterMask(PackedWord.pack("z")));
+		assertEquals((1 << 0) | (1 << 1) | (1 << 4) | (1 << 3) | (1 << 8), PackedWord.letterMask(PackedWord.pack("abide")));
+		assertEquals((1 << 12) - 1, PackedWord.letterMask(PackedWord.pack("abcdefghijkl")));
+		assertEquals(((1 << 12) - 1) << 14, PackedWord.letterMask(PackedWord.pack("opqrstuvwxyz")));
+	}
+
+	@Test
+	void notPackable() {
+		assertFalse(PackedWord.isPackable(null));
+		assertFalse(PackedWord.isPackable("abcdefghijklm")); // MAX_LENGTH + 1 lettere
+		assertFalse(PackedWord.isPackable("Apple"));
+		assertFalse(PackedWord.isPackable("can't"));
+		assertFalse(PackedWord.isPackable("caffè"));
+		assertThrows(IllegalArgumentException.class, () -> PackedWord.pack("abcdefghijklm"));
+		assertThrows(IllegalArgumentException.class, () -> PackedWord.pack("Apple"));
+	}
+
+	@Test
+	void equalsOnlySameWord() {
+		long packed = PackedWord.pack("apple");
+		assertTrue(PackedWord.equals(packed, "apple"));
+		assertFalse(PackedWord.equals(packed, "appl"));
+		assertFalse(PackedWord.equals(packed, "apples"));
+		assertFalse(PackedWord.equals(packed, "Apple"));
+		assertFalse(PackedWord.equals(packed, null));
+		assertTrue(PackedWord.equals(PackedWord.pack("zzzzzzzzzzzz"), "zzzzzzzzzzzz"));
+		assertFalse(PackedWord.equals(PackedWord.pack("zzzzzzzzzzzz"), "zzzzzzzzzzzzz"));
+	}
+
+	private static void assertRoundTrip(String word) {
+		assertTrue(PackedWord.isPackable(word), word);
+		long packed = PackedWord.pack(word);
+		assertEquals(word, PackedWord.unpack(packed));
+		assertEquals(word.length(), PackedWord.length(packed));
+		assertTrue(PackedWord.equals(packed, word), word);
+		int mask = 0;
+		for (int i = 0; i < word.length(); i++) {
+			assertEquals(word.charAt(i), PackedWord.charAt(packed, i));
+			mask |= 1 << (word.charAt(i) - 'a');
+		}
+		assertEquals(mask, PackedWord.letterMask(packed), word);
+	}
+}
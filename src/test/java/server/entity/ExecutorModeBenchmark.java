@@ -0,0 +1,83 @@
+package server.entity;
+
+import common.utils.PackedWord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmark delle due modalita' dell'executor delle richieste (app.executor.mode pool e virtual) con un carico misto
+ * di login e tentativi. Il login calcola l'hash PBKDF2 della password (CPU), il tentativo calcola i suggerimenti e poi
+ * attende come le callback RMI della classifica (bloccante). Stampa durata totale e latenza (attesa + esecuzione) di
+ * ogni tipo di richiesta.
+ * Non viene eseguito con i test, si avvia con:
+ * mvn -B test-compile
+ * java -cp target/classes:target/test-classes:gson-2.8.9.jar server.entity.ExecutorModeBenchmark [richieste]
+ * [% login] [attesa callback ms] [iterazioni PBKDF2]
+ */
+public class ExecutorModeBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int loginPercent = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int callbackMillis = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+		int threads = Runtime.getRuntime().availableProcessors() * 2;
+
+		User user = new User("benchmark", "password", iterations);
+		WordProfile profile = new WordProfile(PackedWord.pack("abide"));
+		long guess = PackedWord.pack("speed");
+
+		System.out.println(requests + " richieste, " + loginPercent + "% login (" + iterations + " iterazioni), callback " +
+				callbackMillis + " ms, " + threads + " thread nella pool");
+		for (boolean virtualThreads: new boolean[]{false, true}) {
+			RequestLane lane = new RequestLane("benchmark", threads, requests, Thread.NORM_PRIORITY, virtualThreads);
+			Random random = new Random(1);
+			List<Future<Long>> logins = new ArrayList<>();
+			List<Future<Long>> guesses = new ArrayList<>();
+
+			long start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				long submitNanos = System.nanoTime();
+				if (random.nextInt(100) < loginPercent) {
+					logins.add(lane.submit(() -> {
+						user.verifyPassword("password");
+						return System.nanoTime() - submitNanos;
+					}));
+				} else {
+					guesses.add(lane.submit(() -> {
+						profile.score(guess);
+						Thread.sleep(callbackMillis);
+						return System.nanoTime() - submitNanos;
+					}));
+				}
+			}
+			String loginLatency = latency(logins);
+			String guessLatency = latency(guesses);
+			long totalMillis = (System.nanoTime() - start) / 1000000;
+			lane.shutdown();
+
+			System.out.println((virtualThreads ? "virtual" : "pool") + ": totale " + totalMillis + " ms, login " +
+					loginLatency + ", tentativi " + guessLatency);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Ritorna mediana e 99-esimo percentile delle latenze in ms
+	 */
+	private static String latency(List<Future<Long>> futures) throws Exception {
+		long[] nanos = new long[futures.size()];
+		for (int i = 0; i < nanos.length; i++) {
+			nanos[i] = futures.get(i).get();
+		}
+		Arrays.sort(nanos);
+		if (nanos.length == 0) {
+			return "-";
+		}
+		return "p50 " + nanos[nanos.length / 2] / 1000000 + " ms, p99 " + nanos[nanos.length * 99 / 100] / 1000000 + " ms";
+	}
+}
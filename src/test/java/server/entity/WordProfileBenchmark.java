@@ -0,0 +1,132 @@
+package server.entity;
+
+import common.dto.LetterDTO;
+import common.utils.PackedWord;
+import server.services.WordleGameService;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark del calcolo dei suggerimenti di un tentativo: WordProfile.score() e WordleGameService.hintWord() con il
+ * profilo della parola, confrontati con l'algoritmo del vecchio hintWord (WordProfileTest.oldHint()) e con il codice
+ * originale di hintWord (toCharArray() per ogni lettera e una cella allocata per lettera, vedi originalHintWord()).
+ * Le coppie parola/tentativo sono scelte a caso tra le parole del dizionario della stessa lunghezza.
+ * Non viene eseguito con i test, si avvia dalla cartella del progetto con:
+ * mvn -B test-compile
+ * java -cp target/classes:target/test-classes:gson-2.8.9.jar server.entity.WordProfileBenchmark
+ */
+public class WordProfileBenchmark {
+
+	private static final int PAIRS = 1 << 16;
+	private static final int HINTS = 5000000; // Suggerimenti calcolati per ogni misura
+	private static final int ROUNDS = 7;
+
+	public static void main(String[] args) throws Exception {
+		List<String> words = Files.readAllLines(Paths.get("src/main/java/dictionary/words.txt"));
+		words.removeIf(word -> !PackedWord.isPackable(word));
+		WordleGameService service = WordleGameService.getInstance();
+
+		// Coppie con parole diverse (es. condivisione di partite vecchie) e tentativi sulla parola attuale, che ha un
+		// solo profilo condiviso da tutte le richieste
+		System.out.println("parole diverse: " + measure(service, words, false));
+		System.out.println("parola attuale: " + measure(service, words, true));
+		System.exit(0);
+	}
+
+	private static String measure(WordleGameService service, List<String> words, boolean sameWord) {
+		Random random = new Random(1);
+		String[] rightWords = new String[PAIRS];
+		String[] guesses = new String[PAIRS];
+		WordProfile[] profiles = new WordProfile[PAIRS];
+		long[] packedGuesses = new long[PAIRS];
+		String currentWord = words.get(random.nextInt(words.size()));
+		WordProfile currentProfile = new WordProfile(PackedWord.pack(currentWord));
+		for (int i = 0; i < PAIRS; i++) {
+			do {
+				rightWords[i] = sameWord ? currentWord : words.get(random.nextInt(words.size()));
+				guesses[i] = words.get(random.nextInt(words.size()));
+			} while (rightWords[i].length() != guesses[i].length());
+			profiles[i] = sameWord ? currentProfile : new WordProfile(PackedWord.pack(rightWords[i]));
+			packedGuesses[i] = PackedWord.pack(guesses[i]);
+		}
+
+		long[] scoreNanos = new long[ROUNDS];
+		long[] hintWordNanos = new long[ROUNDS];
+		long[] oldHintNanos = new long[ROUNDS];
+		long[] originalNanos = new long[ROUNDS];
+		long checksum = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < HINTS; i++) {
+				int pair = i & (PAIRS - 1);
+				checksum += profiles[pair].score(packedGuesses[pair]);
+			}
+			scoreNanos[round] = (System.nanoTime() - start) / HINTS;
+
+			start = System.nanoTime();
+			for (int i = 0; i < HINTS; i++) {
+				int pair = i & (PAIRS - 1);
+				LetterDTO[] hint = service.hintWord(packedGuesses[pair], profiles[pair]);
+				checksum += hint[hint.length - 1].guessStatus;
+			}
+			hintWordNanos[round] = (System.nanoTime() - start) / HINTS;
+
+			start = System.nanoTime();
+			for (int i = 0; i < HINTS; i++) {
+				int pair = i & (PAIRS - 1);
+				checksum += WordProfileTest.oldHint(rightWords[pair], guesses[pair]).length();
+			}
+			oldHintNanos[round] = (System.nanoTime() - start) / HINTS;
+
+			start = System.nanoTime();
+			for (int i = 0; i < HINTS; i++) {
+				int pair = i & (PAIRS - 1);
+				checksum += originalHintWord(guesses[pair], rightWords[pair])[0].guessStatus;
+			}
+			originalNanos[round] = (System.nanoTime() - start) / HINTS;
+		}
+		return "ns/suggerimento (mediana) score " + median(scoreNanos) + ", hintWord " + median(hintWordNanos) +
+				", vecchio hintWord " + median(oldHintNanos) + ", hintWord originale " + median(originalNanos) +
+				" (checksum " + checksum + ")";
+	}
+
+	/**
+	 * Cella dei suggerimenti come la allocava il codice originale
+	 */
+	private static class Cell {
+		char letter;
+		char guessStatus;
+	}
+
+	/**
+	 * Codice originale di WordleGameService.hintWord(), con la parola da indovinare passata come parametro
+	 */
+	private static Cell[] originalHintWord(String word, String rightWord) {
+		Cell[] result = new Cell[word.length()];
+		for (int i = 0; i < word.length(); i++) {
+			char guessedLetter = word.toCharArray()[i];
+			char correctLetter = rightWord.toCharArray()[i];
+
+			result[i] = new Cell();
+			result[i].letter = word.toCharArray()[i];
+			if (guessedLetter == correctLetter) {
+				result[i].guessStatus = '+';
+			} else if (rightWord.contains(String.valueOf(guessedLetter))) {
+				result[i].guessStatus = '?';
+			} else {
+				result[i].guessStatus = 'X';
+			}
+		}
+		return result;
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
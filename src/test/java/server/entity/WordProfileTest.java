@@ -0,0 +1,99 @@
+package server.entity;
+
+import common.utils.PackedWord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Verifica i suggerimenti calcolati da WordProfile.score() ('+' posizione corretta, '?' presente, 'X' assente)
+ */
+class WordProfileTest {
+
+	/**
+	 * Casi con lettere ripetute. L'ultima colonna e' il risultato del vecchio buildUserHint, che segnalava '?' per ogni
+	 * occorrenza di una lettera presente anche se la parola non ne aveva altre disponibili
+	 */
+	@ParameterizedTest(name = "{1} -> {0}: {2}")
+	@CsvSource({
+			// parola, tentativo, atteso, vecchio buildUserHint
+			"abide, speed, XX?X?, XX???",
+			"speed, abide, XXX??, XXX??",
+			"crane, eerie, XX?X+, ???X+",
+			"apple, papal, ??+X?, ??+??",
+			"hello, lllll, XX++X, ??++?",
+			"speed, eeeee, XX++X, ??++?",
+			"level, eleve, ????X, ?????",
+			"sassy, asses, ??+X?, ??+X?",
+			"abbey, babes, ??++X, ??++X",
+			"crane, crane, +++++, +++++",
+	})
+	void repeatedLetters(String word, String guess, String expected, String oldHint) {
+		assertEquals(expected, hint(word, guess));
+		assertEquals(oldHint, oldHint(word, guess));
+	}
+
+	/**
+	 * Con i tentativi senza lettere ripetute il risultato e' lo stesso del vecchio buildUserHint
+	 */
+	@Test
+	void sameAsOldHintWithoutRepeatedLetters() throws IOException {
+		List<String> words = Files.readAllLines(Paths.get("src/main/java/dictionary/words.txt"));
+		words.removeIf(word -> !PackedWord.isPackable(word));
+		Random random = new Random(1);
+		int checked = 0;
+		while (checked < 100000) {
+			String word = words.get(random.nextInt(words.size()));
+			String guess = words.get(random.nextInt(words.size()));
+			if (guess.length() != word.length() || guess.chars().distinct().count() != guess.length()) {
+				continue;
+			}
+			assertEquals(oldHint(word, guess), hint(word, guess), guess + " -> " + word);
+			checked++;
+		}
+	}
+
+	static String hint(String word, String guess) {
+		long score = new WordProfile(PackedWord.pack(word)).score(PackedWord.pack(guess));
+		StringBuilder hint = new StringBuilder(guess.length());
+		for (int i = 0; i < guess.length(); i++) {
+			switch (WordProfile.status(score, i)) {
+				case WordProfile.CORRECT:
+					hint.append('+');
+					break;
+				case WordProfile.PRESENT:
+					hint.append('?');
+					break;
+				default:
+					hint.append('X');
+			}
+		}
+		return hint.toString();
+	}
+
+	/**
+	 * Algoritmo del vecchio buildUserHint
+	 */
+	static String oldHint(String word, String guess) {
+		StringBuilder hint = new StringBuilder(guess.length());
+		for (int i = 0; i < guess.length(); i++) {
+			char letter = guess.charAt(i);
+			if (letter == word.charAt(i)) {
+				hint.append('+');
+			} else if (word.contains(String.valueOf(letter))) {
+				hint.append('?');
+			} else {
+				hint.append('X');
+			}
+		}
+		return hint.toString();
+	}
+}
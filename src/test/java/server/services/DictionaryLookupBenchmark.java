@@ -0,0 +1,68 @@
+package server.services;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark della ricerca di una parola nel dizionario (WordleGameService.isWordInDict, ricerca binaria sulle parole
+ * codificate) confrontata con la ricerca lineare nella lista di stringhe usata in precedenza.
+ * Meta' delle parole cercate sono nel dizionario, le altre sono parole del dizionario con una lettera cambiata.
+ * Non viene eseguito con i test, si avvia dalla cartella del progetto con:
+ * mvn -B test-compile
+ * java -cp target/classes:target/test-classes:gson-2.8.9.jar server.services.DictionaryLookupBenchmark
+ */
+public class DictionaryLookupBenchmark {
+
+	private static final String DICTIONARY_PATH = "src/main/java/dictionary/words.txt";
+	private static final int LOOKUPS = 1000000; // Ricerche per ogni misura dell'indice
+	private static final int SCAN_LOOKUPS = 5000; // Ricerche per ogni misura della ricerca lineare
+	private static final int ROUNDS = 7;
+
+	public static void main(String[] args) throws Exception {
+		WordleGameService service = WordleGameService.getInstance();
+		List<String> list = new ArrayList<>(Files.readAllLines(Paths.get(DICTIONARY_PATH)));
+
+		Random random = new Random(1);
+		String[] words = new String[LOOKUPS];
+		for (int i = 0; i < words.length; i++) {
+			String word = list.get(random.nextInt(list.size()));
+			if (i % 2 == 1) {
+				char[] letters = word.toCharArray();
+				letters[random.nextInt(letters.length)] = (char) ('a' + random.nextInt(26));
+				word = new String(letters);
+			}
+			words[i] = word;
+		}
+
+		long[] indexNanos = new long[ROUNDS];
+		long[] scanNanos = new long[ROUNDS];
+		long found = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (String word: words) {
+				found += service.isWordInDict(word) ? 1 : 0;
+			}
+			indexNanos[round] = (System.nanoTime() - start) / words.length;
+
+			start = System.nanoTime();
+			for (int i = 0; i < SCAN_LOOKUPS; i++) {
+				found += list.contains(words[i]) ? 1 : 0;
+			}
+			scanNanos[round] = (System.nanoTime() - start) / SCAN_LOOKUPS;
+		}
+		System.out.println("parole nel dizionario " + list.size() + ", trovate " + found);
+		System.out.println("isWordInDict ns/ricerca (mediana) " + median(indexNanos));
+		System.out.println("lista ns/ricerca (mediana) " + median(scanNanos));
+		System.exit(0);
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
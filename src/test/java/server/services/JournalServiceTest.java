@@ -0,0 +1,53 @@
+package server.services;
+
+import org.junit.jupiter.api.Test;
+import server.entity.JournalEntry;
+import server.entity.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Verifica che il replay di un segmento gia' contenuto nello snapshot non modifichi gli utenti
+ */
+class JournalServiceTest {
+
+	@Test
+	void replayOverNewerSnapshotChangesNothing() throws Exception {
+		UserService userService = UserService.getInstance();
+		JournalService journalService = JournalService.getInstance();
+		User user = new User("replay" + System.nanoTime(), "password", 1);
+		userService.addUser(user);
+		String username = user.getUsername();
+
+		// Segmento con tre partite: vinta, persa e in corso
+		List<JournalEntry> segment = new ArrayList<>();
+		segment.add(JournalEntry.newGame(username, "abide", 1));
+		segment.add(JournalEntry.guess(username, 1, 0, "speed"));
+		segment.add(JournalEntry.guess(username, 1, 1, "abide"));
+		segment.add(JournalEntry.newGame(username, "crane", 2));
+		segment.add(JournalEntry.guess(username, 2, 0, "speed"));
+		segment.add(JournalEntry.endGame(username, 2));
+		segment.add(JournalEntry.newGame(username, "hello", 3));
+		segment.add(JournalEntry.guess(username, 3, 0, "lllll"));
+
+		// Lo snapshot contiene gia' tutte le modifiche del segmento
+		for (JournalEntry entry: segment) {
+			journalService.apply(entry);
+		}
+		String snapshot = JsonService.toJsonLine(user.snapshot());
+		int score = user.getScore();
+
+		// Replay dell'intero segmento e della sua parte finale (crash tra snapshot ed eliminazione dei segmenti)
+		for (int from = 0; from < segment.size(); from++) {
+			for (JournalEntry entry: segment.subList(from, segment.size())) {
+				assertFalse(journalService.apply(entry), "modifica riapplicata: " + JsonService.toJsonLine(entry));
+			}
+			assertEquals(snapshot, JsonService.toJsonLine(user.snapshot()));
+			assertEquals(score, user.getScore());
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package server.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class JsonServiceTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void keepsGenerations() throws Exception {
+		String path = this.directory.resolve("state.json").toString();
+		for (int version = 1; version <= 5; version++) {
+			JsonService.writeJson(path, version, 3);
+		}
+		assertEquals("5", Files.readString(Path.of(path)));
+		assertEquals("4", Files.readString(Path.of(path + ".1")));
+		assertEquals("3", Files.readString(Path.of(path + ".2")));
+		assertEquals("2", Files.readString(Path.of(path + ".3")));
+		assertFalse(Files.exists(Path.of(path + ".4")));
+		assertFalse(Files.exists(Path.of(path + ".tmp")));
+	}
+
+	@Test
+	void oneGeneration() throws Exception {
+		String path = this.directory.resolve("state.json").toString();
+		for (int version = 1; version <= 3; version++) {
+			JsonService.writeJson(path, version, 1);
+		}
+		assertEquals("3", Files.readString(Path.of(path)));
+		assertEquals("2", Files.readString(Path.of(path + ".1")));
+		assertFalse(Files.exists(Path.of(path + ".2")));
+	}
+}
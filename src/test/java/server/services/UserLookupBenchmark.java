@@ -0,0 +1,83 @@
+package server.services;
+
+import server.entity.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Benchmark del tempo di ricerca di un utente (UserService.getUser) al crescere del numero di utenti, confrontato con
+ * la ricerca lineare in una lista usata prima dell'indice per username.
+ * Non viene eseguito con i test, si avvia da una cartella senza data/users.json con:
+ * mvn -B test-compile
+ * java -Xmx4g -cp target/classes:target/test-classes:gson-2.8.9.jar server.services.UserLookupBenchmark
+ */
+public class UserLookupBenchmark {
+
+	private static final int[] SIZES = {1000, 10000, 100000, 1000000};
+	private static final int LOOKUPS = 2000000; // Ricerche per ogni misura dell'indice
+	private static final long SCAN_WORK = 200000000L; // Confronti per ogni misura della ricerca lineare
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		UserService userService = UserService.getInstance();
+		List<User> list = new ArrayList<>();
+		List<String> usernames = new ArrayList<>();
+		long checksum = 0;
+
+		System.out.println("utenti\tindice ns/ricerca (mediana)\tlista ns/ricerca (mediana)");
+		for (int size: SIZES) {
+			// Aggiungo gli utenti fino alla dimensione della misura. Hash della password con 1 iterazione
+			while (usernames.size() < size) {
+				User user = new User("user" + usernames.size(), "password", 1);
+				userService.addUser(user);
+				list.add(user);
+				usernames.add(user.getUsername());
+			}
+			String[] keys = new String[LOOKUPS];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = usernames.get(ThreadLocalRandom.current().nextInt(size));
+			}
+
+			long[] indexNanos = new long[ROUNDS];
+			long[] scanNanos = new long[ROUNDS];
+			int scanLookups = (int) Math.max(10, SCAN_WORK / size);
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				for (String key: keys) {
+					checksum += userService.getUser(key).getUsername().length();
+				}
+				indexNanos[round] = (System.nanoTime() - start) / keys.length;
+
+				start = System.nanoTime();
+				for (int i = 0; i < scanLookups; i++) {
+					checksum += scan(list, keys[i]).getUsername().length();
+				}
+				scanNanos[round] = (System.nanoTime() - start) / scanLookups;
+			}
+			System.out.println(size + "\t" + median(indexNanos) + "\t" + median(scanNanos));
+		}
+		System.out.println("checksum " + checksum);
+		System.exit(0);
+	}
+
+	/**
+	 * Ricerca lineare, come UserService prima dell'indice per username
+	 */
+	private static User scan(List<User> users, String username) {
+		for (User user: users) {
+			if (user.getUsername().equals(username)) {
+				return user;
+			}
+		}
+		return null;
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,103 @@
+package server.services;
+
+import common.utils.PackedWord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Verifica che l'indice del dizionario (parole codificate e ordinate) dia le stesse risposte della ricerca nella
+ * lista delle parole lette dal file
+ */
+class WordleGameServiceTest {
+
+	private static final String DICTIONARY_PATH = "src/main/java/dictionary/words.txt";
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzAZ0-' ";
+	private static List<String> words;
+	private static Set<String> dictionary;
+	private static WordleGameService service;
+
+	@BeforeAll
+	static void loadDictionary() throws IOException {
+		words = Files.readAllLines(Paths.get(DICTIONARY_PATH));
+		// Il servizio scarta le parole non codificabili
+		dictionary = new HashSet<>();
+		for (String word: words) {
+			if (PackedWord.isPackable(word)) {
+				dictionary.add(word);
+			}
+		}
+		service = WordleGameService.getInstance();
+	}
+
+	@Test
+	void everyDictionaryWordIsFound() {
+		for (String word: words) {
+			assertEquals(dictionary.contains(word), service.isWordInDict(word), word);
+		}
+	}
+
+	@Test
+	void randomWordsAgreeWithList() {
+		long seed = System.nanoTime();
+		Random random = new Random(seed);
+		for (int i = 0; i < 200000; i++) {
+			String word = i % 2 == 0 ? randomWord(random) : mutate(words.get(random.nextInt(words.size())), random);
+			assertEquals(dictionary.contains(word), service.isWordInDict(word), "parola '" + word + "', seed " + seed);
+		}
+	}
+
+	@Test
+	void edgeCases() {
+		assertEquals(false, service.isWordInDict(null));
+		assertEquals(dictionary.contains(""), service.isWordInDict(""));
+		assertEquals(false, service.isWordInDict("abcdefghijklm")); // Piu' di PackedWord.MAX_LENGTH lettere
+	}
+
+	/**
+	 * Parola casuale da 1 a MAX_LENGTH + 2 caratteri, anche non codificabili
+	 */
+	private static String randomWord(Random random) {
+		int length = 1 + random.nextInt(PackedWord.MAX_LENGTH + 2);
+		StringBuilder word = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			// Quasi sempre lettere minuscole, raramente altri caratteri
+			int range = random.nextInt(20) == 0 ? LETTERS.length() : 26;
+			word.append(LETTERS.charAt(random.nextInt(range)));
+		}
+		return word.toString();
+	}
+
+	/**
+	 * Parola del dizionario con una lettera cambiata, aggiunta o tolta
+	 */
+	private static String mutate(String word, Random random) {
+		StringBuilder mutated = new StringBuilder(word);
+		int position = random.nextInt(word.length() + 1);
+		char letter = LETTERS.charAt(random.nextInt(26));
+		switch (random.nextInt(3)) {
+			case 0:
+				if (position < word.length()) {
+					mutated.setCharAt(position, letter);
+				}
+				break;
+			case 1:
+				mutated.insert(position, letter);
+				break;
+			default:
+				if (position < word.length()) {
+					mutated.deleteCharAt(position);
+				}
+		}
+		return mutated.toString();
+	}
+}